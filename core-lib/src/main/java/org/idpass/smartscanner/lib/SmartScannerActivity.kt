@@ -64,17 +64,28 @@ import org.idpass.smartscanner.lib.barcode.BarcodeResult
 import org.idpass.smartscanner.lib.barcode.pdf417.PDF417DecoderFactory
 import org.idpass.smartscanner.lib.barcode.qr.QRCodeAnalyzer
 import org.idpass.smartscanner.lib.idpasslite.IDPassLiteAnalyzer
-import org.idpass.smartscanner.lib.idpasslite.IDPassManager
 import org.idpass.smartscanner.lib.mrz.MRZAnalyzer
 import org.idpass.smartscanner.lib.mrz.MrzUtils
 import org.idpass.smartscanner.lib.nfc.NFCScanAnalyzer
 import org.idpass.smartscanner.lib.ocr.OCRAnalyzer
-import org.idpass.smartscanner.lib.platform.utils.PlayStoreUtils
+import org.idpass.smartscanner.lib.scanner.AnalyzerType
 import org.idpass.smartscanner.lib.scanner.BaseActivity
+import org.idpass.smartscanner.lib.scanner.BaseImageAnalyzer
+import org.idpass.smartscanner.lib.scanner.EngineCalibration
+import org.idpass.smartscanner.lib.scanner.FramePipeline
+import org.idpass.smartscanner.lib.scanner.FrameQualityGate
+import org.idpass.smartscanner.lib.scanner.FrameRecorder
+import org.idpass.smartscanner.lib.scanner.FrameSimilarity
 import org.idpass.smartscanner.lib.scanner.ImageResult
+import org.idpass.smartscanner.lib.scanner.RecognizerEngines
+import org.idpass.smartscanner.lib.scanner.ResultFileTransport
+import org.idpass.smartscanner.lib.scanner.ResultImageEncoder
+import org.idpass.smartscanner.lib.scanner.ScanGeometry
+import org.idpass.smartscanner.lib.scanner.ScannerFrame
 import org.idpass.smartscanner.lib.scanner.SmartScannerException
 import org.idpass.smartscanner.lib.scanner.config.*
 import org.idpass.smartscanner.lib.utils.CameraUtils.isLedFlashAvailable
+import org.idpass.smartscanner.lib.utils.FocusMeter
 import org.idpass.smartscanner.lib.utils.LanguageUtils
 import org.idpass.smartscanner.lib.utils.extension.*
 import org.idpass.smartscanner.lib.utils.transform.CropTransformation
@@ -82,6 +93,8 @@ import java.io.File
 import java.util.*
 import java.util.concurrent.ExecutorService
 import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import kotlin.concurrent.thread
 import kotlin.math.roundToInt
 
 
@@ -97,12 +110,18 @@ class SmartScannerActivity : BaseActivity(), OnClickListener {
         const val SCANNER_FAIL_RESULT = "scanner_fail_result"
         const val SCANNER_RESULT_BYTES = "scanner_result_bytes"
         const val SCANNER_IMAGE_TYPE = "scanner_image_type"
+        const val SCANNER_IMAGE_FORMAT = "scanner_image_format"
+        const val SCANNER_IMAGE_SIZE = "scanner_image_size"
+        const val SCANNER_IMAGE_ENCODE_TIME = "scanner_image_encode_time"
+        const val SCANNER_RESULT_FILE = "scanner_result_file"
+        const val SCANNER_RESULT_URI = "scanner_result_uri"
         const val SCANNER_SIGNATURE_VERIFICATION = "scanner_signature_verification"
         const val SCANNER_JWT_CONFIG_UPDATE = "scanner_jwt_config_update"
         const val SCANNER_SETTINGS_CALL = "scanner_settings"
     }
 
     private val DEFAULT_HEIGHT = 70
+    private val CLOSE_TIMEOUT_SECONDS = 5L
     private val REQUEST_CODE_PERMISSIONS = 10
     private val REQUEST_CODE_PERMISSIONS_VERSION_R = 2296
     private val REQUIRED_PERMISSIONS = arrayOf(
@@ -133,12 +152,17 @@ class SmartScannerActivity : BaseActivity(), OnClickListener {
     private var captureLabelText: TextView? = null
     private var captureHeaderText: TextView? = null
     private var captureSubHeaderText: TextView? = null
+    private var qualityDebugText: TextView? = null
     private var barcodeScannerView: DecoratedBarcodeView? = null
 
     private lateinit var modelLayoutView: View
     private lateinit var coordinatorLayoutView: View
     private lateinit var viewFinder: PreviewView
     private lateinit var cameraExecutor: ExecutorService
+    private lateinit var recognitionExecutor: ExecutorService
+    private var scanAnalyzer: BaseImageAnalyzer? = null
+
+    private val geometryListener = OnLayoutChangeListener { _, _, _, _, _, _, _, _, _ -> publishGeometry() }
 
     private val orientationEventListener by lazy {
         object : OrientationEventListener(this) {
@@ -184,6 +208,7 @@ class SmartScannerActivity : BaseActivity(), OnClickListener {
         captureLabelText = findViewById(R.id.capture_label_text)
         captureHeaderText = findViewById(R.id.capture_header_text)
         captureSubHeaderText = findViewById(R.id.capture_sub_header_text)
+        qualityDebugText = findViewById(R.id.quality_debug_text)
 
         // Scanner setup from intent
         hideActionBar()
@@ -213,6 +238,7 @@ class SmartScannerActivity : BaseActivity(), OnClickListener {
             requestPermissions()
         }
         cameraExecutor = Executors.newSingleThreadExecutor()
+        recognitionExecutor = Executors.newSingleThreadExecutor()
         // Setup Sentry
         val captureLog = scannerOptions?.sentryLogger?.captureLog
         val dsn = scannerOptions?.sentryLogger?.dsn
@@ -236,9 +262,9 @@ class SmartScannerActivity : BaseActivity(), OnClickListener {
 
     private fun setupConfiguration() {
         runOnUiThread {
-            val isMLKit = PlayStoreUtils.isPlayServicesAvailable(this)
             var analyzer: ImageAnalysis.Analyzer? = null
             var hasPDF417 = false
+            var calibration: EngineCalibration.Task? = null
 
             checkGuideView()
 
@@ -252,8 +278,10 @@ class SmartScannerActivity : BaseActivity(), OnClickListener {
                     intent = intent,
                     imageResultType = config?.imageResultType ?: ImageResultType.PATH.value,
                     hasPDF417 = hasPDF417,
-                    barcodeFormats = barcodeFormats
+                    barcodeFormats = barcodeFormats,
+                    engineType = engineFor(RecognizerEngines.BARCODE)
                 )
+                calibration = BarcodeAnalyzer.calibration(barcodeFormats)
                 viewFinder.visibility = VISIBLE
                 barcodeScannerView?.visibility = GONE
             }
@@ -265,8 +293,10 @@ class SmartScannerActivity : BaseActivity(), OnClickListener {
                     imageResultType = config?.imageResultType ?: ImageResultType.PATH.value,
                     isGzipped = qrCodeOptions?.isGzipped ?: false,
                     isJson = qrCodeOptions?.isJson ?: false,
-                    jsonPath = qrCodeOptions?.jsonPath
+                    jsonPath = qrCodeOptions?.jsonPath,
+                    engineType = engineFor(RecognizerEngines.BARCODE)
                 )
+                calibration = QRCodeAnalyzer.calibration()
             }
             if (mode == Modes.QRCODE_CONFIG.value) {
                 analyzer = QRCodeAnalyzer(
@@ -274,8 +304,10 @@ class SmartScannerActivity : BaseActivity(), OnClickListener {
                     intent = intent,
                     mode = Modes.QRCODE_CONFIG.value,
                     "",
-                    null
+                    null,
+                    engineType = engineFor(RecognizerEngines.BARCODE)
                 )
+                calibration = QRCodeAnalyzer.calibration(Modes.QRCODE_CONFIG.value)
                 viewFinder.visibility = VISIBLE
                 barcodeScannerView?.visibility = GONE
             }
@@ -289,7 +321,9 @@ class SmartScannerActivity : BaseActivity(), OnClickListener {
                         raw?.let {
                             showIDPassLiteVerification(it)
                         }
-                    }
+                    },
+                    // card payloads are binary, so no frames are recorded to calibrate on
+                    engineType = engineFor(RecognizerEngines.BARCODE)
                 )
                 viewFinder.visibility = VISIBLE
                 barcodeScannerView?.visibility = GONE
@@ -298,13 +332,16 @@ class SmartScannerActivity : BaseActivity(), OnClickListener {
                 analyzer = MRZAnalyzer(
                     activity = this,
                     intent = intent,
-                    isMLKit = isMLKit,
+                    engineType = engineFor(RecognizerEngines.TEXT),
                     imageResultType = config?.imageResultType ?: ImageResultType.PATH.value,
                     format = scannerOptions?.mrzFormat
                         ?: intent.getStringExtra(ScannerConstants.MRZ_FORMAT_EXTRA),
                     analyzeStart = System.currentTimeMillis(),
-                    isShowGuide = config?.showGuide
+                    isShowGuide = config?.showGuide,
+                    enhanceOptions = scannerOptions?.enhanceOptionsFor(mode),
+                    locateMrz = config?.locateMrz ?: false
                 )
+                calibration = MRZAnalyzer.calibration(applicationContext)
                 viewFinder.visibility = VISIBLE
                 barcodeScannerView?.visibility = GONE
             }
@@ -322,8 +359,12 @@ class SmartScannerActivity : BaseActivity(), OnClickListener {
                         ?: intent.getStringExtra(ScannerConstants.OCR_TYPE),
                     isShowGuide = config?.showOcrGuide ?: false,
                     //when manual capture is set to true. User is required to tap the capture button to analyze the image.
-                    manualCapture = config?.isManualCapture ?: false
+                    manualCapture = config?.isManualCapture ?: false,
+                    enhanceOptions = scannerOptions?.enhanceOptionsFor(mode),
+                    focusThreshold = scannerOptions?.ocrOptions?.focusThreshold ?: FocusMeter.DEFAULT_THRESHOLD,
+                    engineType = engineFor(RecognizerEngines.TEXT)
                 )
+                calibration = OCRAnalyzer.calibration(applicationContext)
                 viewFinder.visibility = VISIBLE
                 barcodeScannerView?.visibility = GONE
             }
@@ -332,7 +373,7 @@ class SmartScannerActivity : BaseActivity(), OnClickListener {
                 analyzer = NFCScanAnalyzer(
                     activity = this,
                     intent = intent,
-                    isMLKit = isMLKit,
+                    engineType = engineFor(RecognizerEngines.TEXT),
                     imageResultType = config?.imageResultType ?: ImageResultType.PATH.value,
                     label = nfcOptions?.label,
                     language = scannerOptions?.language
@@ -348,8 +389,11 @@ class SmartScannerActivity : BaseActivity(), OnClickListener {
                     enableLogging = nfcOptions?.enableLogging
                         ?: false, // default is false, logging is disabled
                     analyzeStart = System.currentTimeMillis(),
-                    isShowGuide = config?.showGuide
+                    isShowGuide = config?.showGuide,
+                    enhanceOptions = scannerOptions?.enhanceOptionsFor(mode),
+                    locateMrz = config?.locateMrz ?: false
                 )
+                calibration = MRZAnalyzer.calibration(applicationContext, Modes.NFC_SCAN.value)
                 viewFinder.visibility = VISIBLE
                 barcodeScannerView?.visibility = GONE
             }
@@ -373,13 +417,10 @@ class SmartScannerActivity : BaseActivity(), OnClickListener {
                     Log.d(TAG, "value: $barcodePdf417")
                     // Add checking to only output PDF417 barcode format response
                     if (barcodePdf417.barcodeFormat == PDF_417) {
-                        val bitmapResult = barcodePdf417.bitmap
-                        val filePath = this.cacheImagePath()
-                        bitmapResult?.cropCenter()?.cacheImageToLocal(
-                            filePath,
-                            0,
-                            if (config?.imageResultType == ImageResultType.BASE_64.value) 30 else 80
-                        )
+                        val encoded = barcodePdf417.bitmap?.let {
+                            ResultImageEncoder(this, config?.imageResultType ?: ImageResultType.PATH.value, base64Quality = 30)
+                                .encode(it, options = config?.imageOptions, async = config?.asyncResultImage == true)
+                        }
                         val corners = barcodePdf417.resultPoints
                         val builder = StringBuilder()
                         for (corner in corners) {
@@ -387,12 +428,9 @@ class SmartScannerActivity : BaseActivity(), OnClickListener {
                         }
                         val cornersString = builder.toString()
                         val rawValue = barcodePdf417.text
-                        val imageFile = File(filePath)
-                        val imageResult =
-                            if (config?.imageResultType == ImageResultType.BASE_64.value) imageFile.encodeBase64() else filePath
                         val barcodeResult = BarcodeResult(
-                            imagePath = filePath,
-                            image = imageResult,
+                            imagePath = encoded?.path,
+                            image = encoded?.image,
                             corners = cornersString,
                             value = rawValue
                         )
@@ -401,6 +439,8 @@ class SmartScannerActivity : BaseActivity(), OnClickListener {
                         val result = Gson().toJson(barcodeResult)
                         data.putExtra(SCANNER_RESULT, result)
                         data.putExtra(SCANNER_IMAGE_TYPE, config?.imageResultType)
+                        encoded?.putInto(data)
+                        ResultFileTransport.apply(this, intent, data)
 
                         setResult(Activity.RESULT_OK, data)
                         this.finish()
@@ -409,6 +449,15 @@ class SmartScannerActivity : BaseActivity(), OnClickListener {
                 barcodeScannerView?.resume()
             } else {
                 // Set Analyzer and start camera
+                // a new session starts with its own recognizer clients
+                scanAnalyzer?.takeIf { it !== analyzer }?.close()
+                scanAnalyzer = analyzer as? BaseImageAnalyzer
+                publishGeometry()
+                setupQualityGate()
+                setupEngineCalibration(calibration)
+                scanAnalyzer?.asyncResultImage = config?.asyncResultImage == true
+                scanAnalyzer?.imageOptions = config?.imageOptions
+                ScannerFrame.compareLegacyPath = config?.compareLegacyPath == true
                 analyzer?.let {
                     startCamera(analyzer, hasPDF417)
                 } ?: run {
@@ -450,6 +499,26 @@ class SmartScannerActivity : BaseActivity(), OnClickListener {
         orientationEventListener.disable()
     }
 
+    override fun onDestroy() {
+        super.onDestroy()
+        // stop frame delivery before releasing the recognizer clients it feeds
+        imageAnalyzer?.clearAnalyzer()
+        if (::cameraExecutor.isInitialized) cameraExecutor.shutdown()
+        val analyzer = scanAnalyzer
+        scanAnalyzer = null
+        if (!::recognitionExecutor.isInitialized) {
+            analyzer?.close()
+            return
+        }
+        // Queued behind the frame being recognized, and waits for the one still on the camera thread,
+        // so that no recognizer client is closed while in use. Frames dispatched later are rejected.
+        recognitionExecutor.execute {
+            if (::cameraExecutor.isInitialized) cameraExecutor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+            analyzer?.close()
+        }
+        recognitionExecutor.shutdown()
+    }
+
     @SuppressLint("ClickableViewAccessibility", "UnsafeOptInUsageError")
     private fun startCamera(analyzer: ImageAnalysis.Analyzer? = null, hasPDF417: Boolean = false) {
         viewFinder.post {
@@ -478,7 +547,7 @@ class SmartScannerActivity : BaseActivity(), OnClickListener {
                     .setBackpressureStrategy(ImageAnalysis.STRATEGY_KEEP_ONLY_LATEST)
                     .build()
                     .also {
-                        analyzer?.let { analysis -> it.setAnalyzer(cameraExecutor, analysis) }
+                        analyzer?.let { analysis -> it.setAnalyzer(cameraExecutor, frameAnalyzer(analysis)) }
                     }
 
                 // Create configuration object for the image capture use case
@@ -558,6 +627,7 @@ class SmartScannerActivity : BaseActivity(), OnClickListener {
                                                 disableAutoCancel()
                                             }.build()
                                         )
+                                        scanAnalyzer?.recognizeNextFrame()
                                     } catch (e: CameraInfoUnavailableException) {
                                         Log.d("ERROR", "cannot access camera", e)
                                     }
@@ -667,6 +737,70 @@ class SmartScannerActivity : BaseActivity(), OnClickListener {
         settingsButton?.setOnClickListener(this)
         flashButton?.setOnClickListener(this)
         manualCapture?.setOnClickListener(this)
+        // overlay geometry for the analyzers, refreshed on every layout change
+        listOf(viewFinder, rectangleGuide, xGuideView, yGuideView).forEach {
+            it?.removeOnLayoutChangeListener(geometryListener)
+            it?.addOnLayoutChangeListener(geometryListener)
+        }
+        publishGeometry()
+    }
+
+    /**
+     * Frames are analyzed serially by default; pipelined analysis through [FramePipeline] is opt-in with
+     * `Config.pipelinedAnalysis`.
+     */
+    private fun frameAnalyzer(analyzer: ImageAnalysis.Analyzer): ImageAnalysis.Analyzer {
+        return if (config?.pipelinedAnalysis == true && analyzer is BaseImageAnalyzer) {
+            FramePipeline(analyzer, recognitionExecutor)
+        } else analyzer
+    }
+
+    /**
+     * Recognizer engine of this session among [candidates], see [RecognizerEngines.select].
+     */
+    private fun engineFor(candidates: List<AnalyzerType>): AnalyzerType {
+        return RecognizerEngines.select(this, candidates, scannerOptions?.engine, mode ?: Modes.MRZ.value)
+    }
+
+    private fun setupEngineCalibration(task: EngineCalibration.Task?) {
+        // Frames are only recorded when asked for and while no engine was picked for the mode yet
+        mode?.let {
+            FrameRecorder.deleteExpired(this, it)
+            if (config?.recordFrames == true && EngineCalibration.fastest(this, it) == null) {
+                scanAnalyzer?.frameRecorder = FrameRecorder(this, it)
+            }
+        }
+        // The first session asking for the fastest engine on a device model measures them in the
+        // background, with the frames recorded so far; later sessions use the pick
+        if (task == null || scannerOptions?.engine != RecognizerEngines.FASTEST) return
+        if (EngineCalibration.fastest(this, task.mode) != null) return
+        val context = applicationContext
+        thread(name = "engine-calibration", priority = Thread.MIN_PRIORITY) {
+            EngineCalibration(context).run(task)
+        }
+    }
+
+    private fun setupQualityGate() {
+        // Frames are only gated or skipped when asked for, and never with manual capture where the user picks the frame
+        val qualityOptions = scannerOptions?.qualityOptions ?: return
+        if (config?.isManualCapture == true) return
+        val maxDuplicateDifference = qualityOptions.maxDuplicateDifference ?: QualityOptions.default.maxDuplicateDifference
+        if (maxDuplicateDifference != 0F) scanAnalyzer?.frameSimilarity = FrameSimilarity(qualityOptions)
+        if (qualityOptions.enabled != true) return
+        scanAnalyzer?.qualityGate = FrameQualityGate(qualityOptions)
+        if (qualityOptions.showDebug == true) {
+            qualityDebugText?.visibility = VISIBLE
+            scanAnalyzer?.onQualityVerdict = { verdict, summary ->
+                runOnUiThread { qualityDebugText?.text = "${verdict.reason}\n$summary" }
+            }
+        }
+    }
+
+    /**
+     * Hands a fresh [ScanGeometry] to the running analyzer. Main thread only.
+     */
+    private fun publishGeometry() {
+        scanAnalyzer?.geometry = ScanGeometry.of(viewFinder, rectangleGuide, xGuideView, yGuideView)
     }
 
     override fun onRequestPermissionsResult(
@@ -721,6 +855,11 @@ class SmartScannerActivity : BaseActivity(), OnClickListener {
             }
 
             R.id.manual_capture -> {
+                // OCR picks the result from the next analyzed frame instead of a still capture
+                (scanAnalyzer as? OCRAnalyzer)?.let {
+                    it.capture()
+                    return
+                }
                 // hide capture button during image capture
                 manualCapture?.isEnabled = false
                 val imageFile = File(cacheImagePath())
@@ -766,6 +905,7 @@ class SmartScannerActivity : BaseActivity(), OnClickListener {
                                 )
                             data.putExtra(SCANNER_IMAGE_TYPE, config?.imageResultType)
                             data.putExtra(SCANNER_RESULT, Gson().toJson(result))
+                            ResultFileTransport.apply(this@SmartScannerActivity, intent, data)
                             setResult(Activity.RESULT_OK, data)
                             finish()
                         }
@@ -786,6 +926,7 @@ class SmartScannerActivity : BaseActivity(), OnClickListener {
         } else {
             camera?.cameraControl?.enableTorch(torch)
         }
+        scanAnalyzer?.recognizeNextFrame()
     }
     private fun showSettings() {
         val data = Intent()
@@ -801,8 +942,8 @@ class SmartScannerActivity : BaseActivity(), OnClickListener {
         val bottomSheetDialog = BottomSheetDialog(this)
         val sheetView = layoutInflater.inflate(R.layout.dialog_idpass_verify, null)
         bottomSheetDialog.setContentView(sheetView)
-        // id pass reader
-        val reader = IDPassManager.getIDPassReader()
+        // the card is verified and returned by the analyzer that read it
+        val analyzer = scanAnalyzer as? IDPassLiteAnalyzer ?: return
         // bottom sheet ids
         val pinCodeInpt = sheetView.findViewById<EditText>(R.id.card_pin_code)
         val verifyBtn = sheetView.findViewById<Button>(R.id.pin_code_verify)
@@ -819,20 +960,14 @@ class SmartScannerActivity : BaseActivity(), OnClickListener {
         })
         verifyBtn.setOnClickListener {
             val pinCode = pinCodeInpt.text.trim().toString()
-            IDPassManager.verifyCard(
-                activity = this,
-                idPassReader = reader,
-                intent = intent,
+            analyzer.verifyCard(
                 raw = qrBytes,
                 pinCode = pinCode,
                 onResult = { bottomSheetDialog.dismiss() }
             )
         }
         skipBtn.setOnClickListener {
-            IDPassManager.verifyCard(
-                activity = this,
-                idPassReader = reader,
-                intent = intent,
+            analyzer.verifyCard(
                 raw = qrBytes,
                 onResult = { bottomSheetDialog.dismiss() }
             )
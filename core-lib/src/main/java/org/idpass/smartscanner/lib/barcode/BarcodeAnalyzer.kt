@@ -22,20 +22,22 @@ import android.app.Activity
 import android.content.Intent
 import android.os.Bundle
 import android.util.Log
-import androidx.camera.core.ImageProxy
 import com.google.gson.Gson
-import com.google.mlkit.vision.barcode.BarcodeScannerOptions
-import com.google.mlkit.vision.barcode.BarcodeScanning
 import com.google.mlkit.vision.barcode.common.Barcode
-import com.google.mlkit.vision.common.InputImage
 import org.idpass.smartscanner.api.ScannerConstants
 import org.idpass.smartscanner.lib.SmartScannerActivity
+import org.idpass.smartscanner.lib.scanner.AnalyzerType
 import org.idpass.smartscanner.lib.scanner.BaseImageAnalyzer
-import org.idpass.smartscanner.lib.scanner.config.ImageResultType
+import org.idpass.smartscanner.lib.scanner.EngineCalibration
+import org.idpass.smartscanner.lib.scanner.FrameMetrics
+import org.idpass.smartscanner.lib.scanner.LumaImage
+import org.idpass.smartscanner.lib.scanner.RecognizedLine
+import org.idpass.smartscanner.lib.scanner.RecognizerEngines
+import org.idpass.smartscanner.lib.scanner.ResultImageEncoder
+import org.idpass.smartscanner.lib.scanner.ScannerFrame
 import org.idpass.smartscanner.lib.scanner.config.Modes
-import org.idpass.smartscanner.lib.utils.BitmapUtils
-import org.idpass.smartscanner.lib.utils.extension.*
-import java.io.File
+import org.idpass.smartscanner.lib.session.ScannerSession
+import org.idpass.smartscanner.lib.utils.LumaEnhancer
 
 
 class BarcodeAnalyzer(
@@ -44,84 +46,100 @@ class BarcodeAnalyzer(
     override val mode: String = Modes.BARCODE.value,
     private val hasPDF417: Boolean,
     private val imageResultType: String,
-    private val barcodeFormats: List<Int>
+    private val barcodeFormats: List<Int>,
+    private val engineType: AnalyzerType = AnalyzerType.MLKIT
 ) : BaseImageAnalyzer() {
 
+    companion object {
+        /**
+         * Calibration of the barcode engines on the recorded frames, expected to read the value returned.
+         */
+        fun calibration(barcodeFormats: List<Int>) = EngineCalibration.Task(
+            mode = Modes.BARCODE.value,
+            candidates = RecognizerEngines.BARCODE,
+            create = { type -> RecognizerEngines.barcode(type, barcodeFormats + Barcode.FORMAT_QR_CODE) },
+            matches = { expected, barcodes -> barcodes.any { it.text == expected } }
+        )
+    }
+
+    // QR codes are always scanned, on top of the requested formats
+    private val engineDelegate = lazy {
+        ScannerSession.engine("barcode/$engineType/$barcodeFormats") {
+            RecognizerEngines.barcode(engineType, barcodeFormats + Barcode.FORMAT_QR_CODE)
+        }
+    }
+    private val engine by engineDelegate
+    private val enhancer = LumaEnhancer()
+    // PDF417 results keep the smaller image they always had, imagePath is the cached file in every mode
+    private val resultImage = ResultImageEncoder(activity, imageResultType, base64Quality = 30, maxSide = if (hasPDF417) 480 else 0, keepFile = true)
+
+    override fun close() {
+        if (engineDelegate.isInitialized()) engine.close()
+    }
+
     @SuppressLint("UnsafeExperimentalUsageError", "UnsafeOptInUsageError")
-    override fun analyze(imageProxy: ImageProxy) {
-        val bitmap = BitmapUtils.getBitmap(imageProxy)
-        bitmap?.let { bf ->
-            Log.d(SmartScannerActivity.TAG, "Bitmap: (${bf.width}, ${bf.height})")
-            val start = System.currentTimeMillis()
-            val rot = imageProxy.imageInfo.rotationDegrees
-            bf.apply {
-                // Increase contrast and brightness for better image processing and reduce Moiré effect
-                setContrast(1.5F)
-                setBrightness(5F)
+    override fun prepare(frame: ScannerFrame): LumaImage? {
+        Log.d(SmartScannerActivity.TAG, "Frame: (${frame.width}, ${frame.height})")
+        if (!passesQualityGate(frame)) return null
+        // Barcodes only need the Y plane, every engine gets the same greyscale copy
+        return frame.toLumaImage(enhancer)
+    }
+
+    override fun recognize(frame: ScannerFrame, image: LumaImage) {
+        val start = System.currentTimeMillis()
+        Log.d("${SmartScannerActivity.TAG}/SmartScanner", "barcode: process")
+        val barcodes = try {
+            FrameMetrics.measure(RecognizerEngines.metric(engine.type)) { engine.recognize(image) }
+        } catch (e: Exception) {
+            Log.d(
+                "${SmartScannerActivity.TAG}/SmartScanner",
+                "barcode: failure: ${e.message}"
+            )
+            null
+        }
+        val timeRequired = System.currentTimeMillis() - start
+        Log.d(
+            "${SmartScannerActivity.TAG}/SmartScanner",
+            "barcode: ${engine.type}: $timeRequired ms"
+        )
+        // Results are handled on the main thread, like the ML Kit listeners always did
+        activity.runOnUiThread {
+            if (barcodes != null && barcodes.isNotEmpty()) {
+                handleBarcode(frame, barcodes[0])
+            } else {
+                Log.d(
+                    "${SmartScannerActivity.TAG}/SmartScanner",
+                    "barcode: nothing detected"
+                )
+            }
+            frame.close()
+        }
+    }
+
+    private fun handleBarcode(frame: ScannerFrame, barcode: RecognizedLine) {
+        val corners = barcode.corners
+        val builder = StringBuilder()
+        if (corners != null) {
+            for (i in corners.indices step 2) {
+                builder.append("${corners[i].toInt()},${corners[i + 1].toInt()} ")
+            }
+        }
+        frameRecorder?.record(frame, barcode.text)
+        // Result image is only encoded once a barcode has been found
+        startResult()
+        val encoded = encodeResultImage(resultImage, frame)
+        val cornersString = builder.toString()
+        val rawValue = barcode.text
+        val result = BarcodeResult(imagePath = encoded.path, image = encoded.image, corners = cornersString, value = rawValue)
+        when (intent.action) {
+            ScannerConstants.IDPASS_SMARTSCANNER_BARCODE_INTENT,
+            ScannerConstants.IDPASS_SMARTSCANNER_ODK_BARCODE_INTENT -> {
+                sendBundleResult(barcodeResult = result)
             }
-            var barcodeFormat = Barcode.FORMAT_QR_CODE
-            barcodeFormats.forEach {
-                barcodeFormat = it or barcodeFormat // bitwise different barcode format options
+            else -> {
+                val jsonString = Gson().toJson(result)
+                sendAnalyzerResult(result = jsonString)
             }
-            val options = BarcodeScannerOptions.Builder().setBarcodeFormats(barcodeFormat).build()
-            val image = InputImage.fromBitmap(bf, imageProxy.imageInfo.rotationDegrees)
-            val scanner = BarcodeScanning.getClient(options)
-            Log.d("${SmartScannerActivity.TAG}/SmartScanner", "barcode: process")
-            scanner.process(image)
-                .addOnSuccessListener { barcodes ->
-                    val timeRequired = System.currentTimeMillis() - start
-                    val cornersString: String
-                    val rawValue: String?
-                    Log.d(
-                        "${SmartScannerActivity.TAG}/SmartScanner",
-                        "barcode: success: $timeRequired ms"
-                    )
-                    val filePath = activity.cacheImagePath()
-                    if (barcodes != null && barcodes.isNotEmpty()) {
-                        val barcode = barcodes[0]
-                        val corners = barcode.cornerPoints
-                        val builder = StringBuilder()
-                        if (corners != null) {
-                            for (corner in corners) {
-                                builder.append("${corner.x},${corner.y} ")
-                            }
-                        }
-                        val bitmapResult = if (hasPDF417) bf.resize(640, 480) else bf
-                        bitmapResult?.cropCenter()?.cacheImageToLocal(
-                            filePath,
-                            imageProxy.imageInfo.rotationDegrees,
-                            if (imageResultType == ImageResultType.BASE_64.value) 30 else 80
-                        )
-                        cornersString = builder.toString()
-                        rawValue =  barcode.rawValue ?: barcode.displayValue
-                        val imageFile = File(filePath)
-                        val imageResult = if (imageResultType == ImageResultType.BASE_64.value) imageFile.encodeBase64() else filePath
-                        val result = BarcodeResult(imagePath = filePath, image = imageResult, corners = cornersString, value = rawValue)
-                        when (intent.action) {
-                            ScannerConstants.IDPASS_SMARTSCANNER_BARCODE_INTENT,
-                            ScannerConstants.IDPASS_SMARTSCANNER_ODK_BARCODE_INTENT -> {
-                                sendBundleResult(barcodeResult = result)
-                            }
-                            else -> {
-                                val jsonString = Gson().toJson(result)
-                                sendAnalyzerResult(result = jsonString)
-                            }
-                        }
-                    } else {
-                        Log.d(
-                            "${SmartScannerActivity.TAG}/SmartScanner",
-                            "barcode: nothing detected"
-                        )
-                    }
-                    imageProxy.close()
-                }
-                .addOnFailureListener { e ->
-                    imageProxy.close()
-                    Log.d(
-                        "${SmartScannerActivity.TAG}/SmartScanner",
-                        "barcode: failure: ${e.message}"
-                    )
-                }
         }
     }
 
@@ -132,8 +150,7 @@ class BarcodeAnalyzer(
         data.putExtra(SmartScannerActivity.SCANNER_IMAGE_TYPE, imageResultType)
         data.putExtra(SmartScannerActivity.SCANNER_RESULT, result)
         data.putExtra(ScannerConstants.MODE, mode)
-        activity.setResult(Activity.RESULT_OK, data)
-        activity.finish()
+        finishWithResult(data)
     }
 
     private fun sendBundleResult(barcodeResult: BarcodeResult? = null) {
@@ -155,7 +172,6 @@ class BarcodeAnalyzer(
         for (key in bundle.keySet()) {
             result.putExtra(prefix + key, bundle.getString(key))
         }
-        activity.setResult(Activity.RESULT_OK, result)
-        activity.finish()
+        finishWithResult(result)
     }
 }
\ No newline at end of file
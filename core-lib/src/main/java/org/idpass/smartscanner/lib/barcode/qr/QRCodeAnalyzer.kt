@@ -23,30 +23,32 @@ import android.content.Context
 import android.content.Intent
 import android.os.Bundle
 import android.util.Log
-import androidx.camera.core.ImageProxy
 import com.github.wnameless.json.flattener.JsonFlattener
 import com.google.gson.JsonParseException
-import com.google.mlkit.vision.barcode.BarcodeScannerOptions
-import com.google.mlkit.vision.barcode.BarcodeScanning
 import com.google.mlkit.vision.barcode.common.Barcode
-import com.google.mlkit.vision.common.InputImage
 import com.jayway.jsonpath.JsonPath
 import io.jsonwebtoken.Claims
 import io.jsonwebtoken.Jws
 import org.idpass.smartscanner.api.ScannerConstants
 import org.idpass.smartscanner.lib.SmartScannerActivity
+import org.idpass.smartscanner.lib.scanner.AnalyzerType
 import org.idpass.smartscanner.lib.scanner.BaseImageAnalyzer
+import org.idpass.smartscanner.lib.scanner.EngineCalibration
+import org.idpass.smartscanner.lib.scanner.FrameMetrics
+import org.idpass.smartscanner.lib.scanner.LumaImage
+import org.idpass.smartscanner.lib.scanner.RecognizedLine
+import org.idpass.smartscanner.lib.scanner.RecognizerEngines
+import org.idpass.smartscanner.lib.scanner.ScannerFrame
 import org.idpass.smartscanner.lib.scanner.config.Config
 import org.idpass.smartscanner.lib.scanner.config.Modes
-import org.idpass.smartscanner.lib.utils.BitmapUtils
+import org.idpass.smartscanner.lib.session.ScannerSession
 import org.idpass.smartscanner.lib.utils.GzipUtils
 import org.idpass.smartscanner.lib.utils.JWTUtils
 import org.idpass.smartscanner.lib.utils.JWTUtils.getJsonBody
 import org.idpass.smartscanner.lib.utils.JWTUtils.getJsonHeader
 import org.idpass.smartscanner.lib.utils.JWTUtils.isDefaultConfigPublicKey
 import org.idpass.smartscanner.lib.utils.JWTUtils.isJWT
-import org.idpass.smartscanner.lib.utils.extension.setBrightness
-import org.idpass.smartscanner.lib.utils.extension.setContrast
+import org.idpass.smartscanner.lib.utils.LumaEnhancer
 import org.json.JSONObject
 import java.io.ByteArrayInputStream
 import java.lang.RuntimeException
@@ -60,73 +62,96 @@ class QRCodeAnalyzer(
     private val imageResultType: String,
     private var isGzipped: Boolean? = null,
     private var isJson: Boolean? = false,
-    private var jsonPath: String? = null
+    private var jsonPath: String? = null,
+    private val engineType: AnalyzerType = AnalyzerType.MLKIT
 ) : BaseImageAnalyzer() {
 
+    companion object {
+        private val FORMATS = listOf(Barcode.FORMAT_QR_CODE)
+
+        /**
+         * Calibration of the barcode engines on the recorded QR code frames of [mode], expected to read the value returned.
+         */
+        fun calibration(mode: String = Modes.QRCODE.value) = EngineCalibration.Task(
+            mode = mode,
+            candidates = RecognizerEngines.BARCODE,
+            create = { type -> RecognizerEngines.barcode(type, FORMATS) },
+            matches = { expected, barcodes -> barcodes.any { it.text == expected } }
+        )
+    }
+
+    private val engineDelegate = lazy {
+        ScannerSession.engine("barcode/$engineType/$FORMATS") { RecognizerEngines.barcode(engineType, FORMATS) }
+    }
+    private val engine by engineDelegate
+    private val enhancer = LumaEnhancer()
+
+    override fun close() {
+        if (engineDelegate.isInitialized()) engine.close()
+    }
+
     @SuppressLint("UnsafeExperimentalUsageError", "UnsafeOptInUsageError")
-    override fun analyze(imageProxy: ImageProxy) {
-        val bitmap = BitmapUtils.getBitmap(imageProxy)
-        bitmap?.let { bf ->
-            Log.d(SmartScannerActivity.TAG, "Bitmap: (${bf.width}, ${bf.height})")
-            val start = System.currentTimeMillis()
-            bf.apply {
-                // Increase contrast and brightness for better image processing and reduce Moiré effect
-                setContrast(1.5F)
-                setBrightness(5F)
+    override fun prepare(frame: ScannerFrame): LumaImage? {
+        Log.d(SmartScannerActivity.TAG, "Frame: (${frame.width}, ${frame.height})")
+        if (!passesQualityGate(frame)) return null
+        // QR codes only need the Y plane, every engine gets the same greyscale copy
+        return frame.toLumaImage(enhancer)
+    }
+
+    override fun recognize(frame: ScannerFrame, image: LumaImage) {
+        val start = System.currentTimeMillis()
+        Log.d("${SmartScannerActivity.TAG}/SmartScanner", "qrcode: process")
+        val barcodes = try {
+            FrameMetrics.measure(RecognizerEngines.metric(engine.type)) { engine.recognize(image) }
+        } catch (e: Exception) {
+            Log.d(
+                "${SmartScannerActivity.TAG}/SmartScanner",
+                "qrcode: failure: ${e.message}"
+            )
+            null
+        }
+        val timeRequired = System.currentTimeMillis() - start
+        Log.d(
+            "${SmartScannerActivity.TAG}/SmartScanner",
+            "qrcode: ${engine.type}: $timeRequired ms"
+        )
+        // Results are handled on the main thread, like the ML Kit listeners always did
+        activity.runOnUiThread {
+            if (barcodes != null && barcodes.isNotEmpty()) {
+                handleBarcode(frame, barcodes[0])
+            } else {
+                Log.d(
+                    "${SmartScannerActivity.TAG}/SmartScanner",
+                    "qrcode: nothing detected"
+                )
             }
-            val barcodeFormat = Barcode.FORMAT_QR_CODE
-            val options = BarcodeScannerOptions.Builder().setBarcodeFormats(barcodeFormat).build()
-            val image = InputImage.fromBitmap(bf, imageProxy.imageInfo.rotationDegrees)
-            val scanner = BarcodeScanning.getClient(options)
-            Log.d("${SmartScannerActivity.TAG}/SmartScanner", "qrcode: process")
-            scanner.process(image)
-                .addOnSuccessListener { barcodes ->
-                    val timeRequired = System.currentTimeMillis() - start
-                    val rawValue: String?
-                    Log.d(
-                        "${SmartScannerActivity.TAG}/SmartScanner",
-                        "qrcode: success: $timeRequired ms"
-                    )
-                    if (barcodes.isNotEmpty()) {
-                        rawValue = barcodes[0].rawValue
-                        if (intent.action == ScannerConstants.IDPASS_SMARTSCANNER_QRCODE_INTENT ||
-                            intent.action == ScannerConstants.IDPASS_SMARTSCANNER_ODK_QRCODE_INTENT){
-                            sendBundleResult(
-                                rawValue = rawValue,
-                                rawBytes = barcodes[0].rawBytes
-                            )
-                        } else {
-                            sendResult( rawValue = rawValue, rawBytes = barcodes[0].rawBytes)
-                            scanner.close()
-                        }
-                    } else {
-                        Log.d(
-                            "${SmartScannerActivity.TAG}/SmartScanner",
-                            "qrcode: nothing detected"
-                        )
-                    }
-                    imageProxy.close()
-                }
-                .addOnFailureListener { e ->
-                    imageProxy.close()
-                    Log.d(
-                        "${SmartScannerActivity.TAG}/SmartScanner",
-                        "qrcode: failure: ${e.message}"
-                    )
-                }
+            frame.close()
         }
     }
 
-    private fun sendResult(rawValue: String?, rawBytes: ByteArray?) {
+    private fun handleBarcode(frame: ScannerFrame, barcode: RecognizedLine) {
+        frameRecorder?.record(frame, barcode.text)
+        startResult()
+        if (intent.action == ScannerConstants.IDPASS_SMARTSCANNER_QRCODE_INTENT ||
+            intent.action == ScannerConstants.IDPASS_SMARTSCANNER_ODK_QRCODE_INTENT){
+            sendBundleResult(
+                rawValue = barcode.text,
+                rawBytes = barcode.rawBytes
+            )
+        } else {
+            sendResult(rawValue = barcode.text, rawBytes = barcode.rawBytes)
+        }
+    }
 
+    private fun sendResult(rawValue: String?, rawBytes: ByteArray?) {
+        val data = Intent()
         try {
-            val intent = Intent()
 
             val result: String? = when (rawValue?.isJWT()) {
                 true -> {
                     val value = getValueJWT(rawValue)
-                    intent.putExtra(SmartScannerActivity.SCANNER_HEADER_RESULT, value.getJsonHeader().toString())
-                    intent.putExtra(SmartScannerActivity.SCANNER_SIGNATURE_VERIFICATION, true)
+                    data.putExtra(SmartScannerActivity.SCANNER_HEADER_RESULT, value.getJsonHeader().toString())
+                    data.putExtra(SmartScannerActivity.SCANNER_SIGNATURE_VERIFICATION, true)
 
 
                     // checks for config result jwt
@@ -145,7 +170,7 @@ class QRCodeAnalyzer(
 
                         editor?.apply()
 
-                        intent.putExtra(SmartScannerActivity.SCANNER_JWT_CONFIG_UPDATE, true)
+                        data.putExtra(SmartScannerActivity.SCANNER_JWT_CONFIG_UPDATE, true)
                     }
 
                     value.getJsonBody().toString()
@@ -157,14 +182,14 @@ class QRCodeAnalyzer(
             if (isJson == true && result != null && result != rawValue) {
                 jsonPath?.let { path ->
                     val ctx = JsonPath.parse(result)
-                    intent.putExtra(
+                    data.putExtra(
                         ScannerConstants.QRCODE_JSON_VALUE,
                         ctx.read<Any>(path).toString()
                     )
                 }
                 val flattenMap = flattenJson(result)
                 for ((k, v) in flattenMap) {
-                    intent.putExtra(k, v)
+                    data.putExtra(k, v)
                 }
             }
 
@@ -173,20 +198,16 @@ class QRCodeAnalyzer(
             Log.d(SmartScannerActivity.TAG, "raw " + rawValue.toString())
             Log.d(SmartScannerActivity.TAG, "Success from QRCODE")
             Log.d(SmartScannerActivity.TAG, "value: $result")
-            intent.putExtra(ScannerConstants.MODE, mode)
-            intent.putExtra(SmartScannerActivity.SCANNER_IMAGE_TYPE, imageResultType)
-            intent.putExtra(SmartScannerActivity.SCANNER_RESULT, result)
-            intent.putExtra(SmartScannerActivity.SCANNER_RAW_RESULT, rawValue)
-
-
-            activity.setResult(Activity.RESULT_OK, intent)
-            activity.finish()
+            data.putExtra(ScannerConstants.MODE, mode)
+            data.putExtra(SmartScannerActivity.SCANNER_IMAGE_TYPE, imageResultType)
+            data.putExtra(SmartScannerActivity.SCANNER_RESULT, result)
+            data.putExtra(SmartScannerActivity.SCANNER_RAW_RESULT, rawValue)
+            finishWithResult(data)
         } catch (ex : Exception) {
             Log.d(SmartScannerActivity.TAG, "Exception: ${ex.localizedMessage}")
 
-            intent.putExtra(SmartScannerActivity.SCANNER_FAIL_RESULT, ex.localizedMessage)
-            activity.setResult(Activity.RESULT_OK, intent)
-            activity.finish()
+            data.putExtra(SmartScannerActivity.SCANNER_FAIL_RESULT, ex.localizedMessage)
+            finishWithResult(data)
         }
     }
 
@@ -241,8 +262,7 @@ class QRCodeAnalyzer(
         for (key in bundle.keySet()) {
             result.putExtra(prefix + key, bundle.getString(key))
         }
-        activity.setResult(Activity.RESULT_OK, result)
-        activity.finish()
+        finishWithResult(result)
     }
 
     private fun getGzippedData(rawBytes: ByteArray?) : String? {
@@ -263,7 +283,6 @@ class QRCodeAnalyzer(
             val key = k.replace(".", "_").replace("[", "_").replace("]", "_").replace("__", "_")
             if (v != null) {
                 map[key] = v.toString()
-                print("$key, ")
             }
         }
         Log.d(
@@ -21,56 +21,92 @@ import android.annotation.SuppressLint
 import android.app.Activity
 import android.content.Intent
 import android.util.Log
-import androidx.camera.core.ImageProxy
-import com.google.mlkit.vision.barcode.BarcodeScannerOptions
-import com.google.mlkit.vision.barcode.BarcodeScanning
 import com.google.mlkit.vision.barcode.common.Barcode
-import com.google.mlkit.vision.common.InputImage
 import org.idpass.smartscanner.api.ScannerConstants
 import org.idpass.smartscanner.lib.SmartScannerActivity
+import org.idpass.smartscanner.lib.scanner.AnalyzerType
 import org.idpass.smartscanner.lib.scanner.BaseImageAnalyzer
+import org.idpass.smartscanner.lib.scanner.FrameMetrics
+import org.idpass.smartscanner.lib.scanner.LumaImage
+import org.idpass.smartscanner.lib.scanner.RecognizerEngines
+import org.idpass.smartscanner.lib.scanner.ScannerFrame
 import org.idpass.smartscanner.lib.scanner.config.Modes
-import org.idpass.smartscanner.lib.utils.BitmapUtils
+import org.idpass.smartscanner.lib.session.ScannerSession
+import org.idpass.smartscanner.lib.utils.LumaEnhancer
 
 class IDPassLiteAnalyzer(
         override var activity: Activity,
         override var intent: Intent,
         override var mode: String = Modes.IDPASS_LITE.value,
-        private val onVerify: (ByteArray?) -> Unit
+        private val onVerify: (ByteArray?) -> Unit,
+        private val engineType: AnalyzerType = AnalyzerType.MLKIT
 ) : BaseImageAnalyzer(){
 
+    companion object {
+        private val FORMATS = listOf(Barcode.FORMAT_QR_CODE)
+    }
+
+    // Cards are QR codes with a binary payload, read from the bytes the engine returns
+    private val engineDelegate = lazy {
+        ScannerSession.engine("barcode/$engineType/$FORMATS") { RecognizerEngines.barcode(engineType, FORMATS) }
+    }
+    private val engine by engineDelegate
+    private val enhancer = LumaEnhancer()
+
+    override fun close() {
+        if (engineDelegate.isInitialized()) engine.close()
+    }
+
     @SuppressLint("UnsafeExperimentalUsageError", "UnsafeOptInUsageError")
-    override fun analyze(imageProxy: ImageProxy) {
-        val bitmap = BitmapUtils.getBitmap(imageProxy)
-        bitmap?.let { bf ->
-            Log.d(SmartScannerActivity.TAG, "Bitmap: (${bf.width}, ${bf.height})")
-            val start = System.currentTimeMillis()
-            val options = BarcodeScannerOptions.Builder().setBarcodeFormats(Barcode.FORMAT_QR_CODE).build()
-            val image = InputImage.fromBitmap(bf, imageProxy.imageInfo.rotationDegrees)
-            val scanner = BarcodeScanning.getClient(options)
-            Log.d("${SmartScannerActivity.TAG}/SmartScanner", "ID PASS Lite: process")
-            scanner.process(image)
-                .addOnSuccessListener { barcodes ->
-                    Log.d("${SmartScannerActivity.TAG}/SmartScanner", "ID PASS Lite: barcodes $barcodes")
-                    if (barcodes.isNotEmpty()) {
-                        val timeRequired = System.currentTimeMillis() - start
-                        Log.d("${SmartScannerActivity.TAG}/SmartScanner", "ID PASS Lite: success: $timeRequired ms")
-                        val raw = barcodes[0].rawBytes
-                        if (intent.action == ScannerConstants.IDPASS_SMARTSCANNER_IDPASS_LITE_INTENT ||
-                            intent.action == ScannerConstants.IDPASS_SMARTSCANNER_ODK_IDPASS_LITE_INTENT) {
-                            onVerify.invoke(raw)
-                        } else {
-                            IDPassManager.sendAnalyzerResult(activity = activity, result = raw)
-                        }
-                    } else {
-                        Log.d("${SmartScannerActivity.TAG}/SmartScanner", "ID PASS Lite: nothing detected")
-                    }
-                    imageProxy.close()
-                }
-                .addOnFailureListener { e ->
-                    imageProxy.close()
-                    Log.d("${SmartScannerActivity.TAG}/SmartScanner", "ID PASS Lite: failure: ${e.message}")
+    override fun prepare(frame: ScannerFrame): LumaImage? {
+        Log.d(SmartScannerActivity.TAG, "Frame: (${frame.width}, ${frame.height})")
+        return frame.toLumaImage(enhancer)
+    }
+
+    override fun recognize(frame: ScannerFrame, image: LumaImage) {
+        val start = System.currentTimeMillis()
+        Log.d("${SmartScannerActivity.TAG}/SmartScanner", "ID PASS Lite: process")
+        val barcodes = try {
+            FrameMetrics.measure(RecognizerEngines.metric(engine.type)) { engine.recognize(image) }
+        } catch (e: Exception) {
+            Log.d("${SmartScannerActivity.TAG}/SmartScanner", "ID PASS Lite: failure: ${e.message}")
+            null
+        }
+        // Results are handled on the main thread, like the ML Kit listeners always did
+        activity.runOnUiThread {
+            Log.d("${SmartScannerActivity.TAG}/SmartScanner", "ID PASS Lite: barcodes $barcodes")
+            if (barcodes != null && barcodes.isNotEmpty()) {
+                val timeRequired = System.currentTimeMillis() - start
+                Log.d("${SmartScannerActivity.TAG}/SmartScanner", "ID PASS Lite: ${engine.type}: $timeRequired ms")
+                val raw = barcodes[0].rawBytes
+                if (intent.action == ScannerConstants.IDPASS_SMARTSCANNER_IDPASS_LITE_INTENT ||
+                    intent.action == ScannerConstants.IDPASS_SMARTSCANNER_ODK_IDPASS_LITE_INTENT) {
+                    onVerify.invoke(raw)
+                } else {
+                    startResult()
+                    IDPassManager.sendAnalyzerResult(activity = activity, result = raw) { data -> finishWithResult(data) }
                 }
+            } else {
+                Log.d("${SmartScannerActivity.TAG}/SmartScanner", "ID PASS Lite: nothing detected")
+            }
+            frame.close()
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Verifies the card read from [raw], with [pinCode] when given, and returns it like every other result.
+     * Called from the main thread once the user confirmed; [onResult] runs when a result was sent.
+     */
+    fun verifyCard(raw: ByteArray, pinCode: String = "", onResult: () -> Unit) {
+        startResult()
+        IDPassManager.verifyCard(
+            activity = activity,
+            idPassReader = ScannerSession.idPassReader(),
+            intent = intent,
+            raw = raw,
+            pinCode = pinCode,
+            onResult = onResult,
+            finish = { data -> finishWithResult(data) }
+        )
+    }
+}
@@ -72,7 +72,8 @@ object IDPassManager {
         idPassReader: IDPassReader,
         intent: Intent, raw: ByteArray,
         pinCode: String = "",
-        onResult: () -> Unit
+        onResult: () -> Unit,
+        finish: (Intent) -> Unit = { data -> finish(activity, data) }
     ) {
         val card: Card? = readCard(idPassReader, raw)
         try {
@@ -83,14 +84,14 @@ object IDPassManager {
                     try {
                         card.authenticateWithPIN(pinCode)
                         Toast.makeText(activity, "Authentication Success", Toast.LENGTH_SHORT).show()
-                        sendBundleResult(activity, intent, idPassLiteResult)
+                        sendBundleResult(intent, idPassLiteResult, finish)
                         onResult.invoke()
                     } catch (ve: CardVerificationException) {
                         Toast.makeText(activity, "Authentication Fail", Toast.LENGTH_SHORT).show()
                     }
                 } else {
                     // send result bundle if verification is skipped
-                    sendBundleResult(activity, intent, idPassLiteResult)
+                    sendBundleResult(intent, idPassLiteResult, finish)
                     onResult.invoke()
                 }
             } else {
@@ -120,20 +121,31 @@ object IDPassManager {
         return card
     }
 
-    fun sendAnalyzerResult(activity: Activity, result: ByteArray? = null) {
+    /**
+     * Returns the raw card bytes through [finish], by default as the result of [activity].
+     */
+    fun sendAnalyzerResult(
+        activity: Activity,
+        result: ByteArray? = null,
+        finish: (Intent) -> Unit = { data -> finish(activity, data) }
+    ) {
         val data = Intent()
         Log.d(SmartScannerActivity.TAG, "Success from IDPASS LITE")
         Log.d(SmartScannerActivity.TAG, "value: $result")
         data.putExtra(ScannerConstants.MODE, Modes.IDPASS_LITE.value)
         data.putExtra(SmartScannerActivity.SCANNER_RESULT_BYTES, result)
+        finish(data)
+    }
+
+    private fun finish(activity: Activity, data: Intent) {
         activity.setResult(Activity.RESULT_OK, data)
         activity.finish()
     }
 
     private fun sendBundleResult(
-        activity: Activity,
         intent: Intent,
-        idPassLiteResult: IDPassLiteResult
+        idPassLiteResult: IDPassLiteResult,
+        finish: (Intent) -> Unit
     ) {
         val bundle = Bundle()
         val card = idPassLiteResult.card
@@ -197,7 +209,6 @@ object IDPassManager {
         for (key in bundle.keySet()) {
             result.putExtra(prefix + key, bundle.getString(key))
         }
-        activity.setResult(Activity.RESULT_OK, result)
-        activity.finish()
+        finish(result)
     }
 }
\ No newline at end of file
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.mrz
+
+import android.util.Log
+import org.idpass.smartscanner.lib.SmartScannerActivity
+
+/**
+ * Cross-frame memory of a scanning session: cleaned MRZ reads of consecutive frames are aligned by
+ * [MRZLayout] and every character position is decided by a vote. The
+ * consensus is handed out as soon as it passes [validate], so a character misread in one frame is
+ * outvoted by the others, and line 1 of a frame can be combined with line 2 of another.
+ *
+ * Only the last [MAX_FRAMES] reads of one layout take part in the vote, which lets a new document take over.
+ * Not thread safe, reads are expected from the recognizer callbacks.
+ */
+class MRZAccumulator(private val validate: (String) -> Boolean) {
+
+    companion object {
+        const val MAX_FRAMES = 12
+        private const val ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789<"
+        private const val RECENCY_BONUS = 0.001F
+    }
+
+    private class Read(val lines: List<String?>, val weights: FloatArray)
+
+    private var layout: MRZLayout? = null
+    private val reads = ArrayDeque<Read>()
+    private var votes = Array(0) { FloatArray(0) }
+
+    /**
+     * Number of reads currently taking part in the vote.
+     */
+    val size: Int get() = reads.size
+
+    fun reset() {
+        layout = null
+        reads.clear()
+    }
+
+    /**
+     * Adds one cleaned MRZ read, with an optional recognizer confidence per line, and returns the
+     * consensus if it passes the check digits, null otherwise.
+     */
+    fun add(mrz: String, lineWeights: FloatArray? = null): String? {
+        val lines = mrz.split('\n').filter { it.isNotEmpty() }
+        val readLayout = MRZLayout.detect(lines) ?: return null
+        if (readLayout != layout) {
+            // another document type, start over
+            reset()
+            layout = readLayout
+        }
+        // lines missing more than a few fillers are shifted and would only add noise to the vote
+        val aligned = lines.map { readLayout.fit(it) }
+        if (aligned.all { it == null }) return null
+        val weights = FloatArray(readLayout.rows) { lineWeights?.getOrNull(it) ?: 1F }
+        reads.addLast(Read(aligned, weights))
+        if (reads.size > MAX_FRAMES) reads.removeFirst()
+
+        // A read that is valid on its own needs no vote
+        val read = aligned.joinToString("\n") { it ?: "" }
+        if (aligned.none { it == null } && validate(read)) return read
+
+        val consensus = consensus(readLayout)
+        Log.d("${SmartScannerActivity.TAG}/SmartScanner", "MRZ consensus over ${reads.size} frames: ${consensus.replace("\n", "↩")}")
+        return if (validate(consensus)) consensus else null
+    }
+
+    private fun consensus(layout: MRZLayout): String {
+        val positions = layout.rows * layout.columns
+        if (votes.size != positions) votes = Array(positions) { FloatArray(ALPHABET.length) }
+        votes.forEach { it.fill(0F) }
+        reads.forEachIndexed { age, read ->
+            // newer reads win ties
+            val recency = age * RECENCY_BONUS
+            read.lines.forEachIndexed { row, line ->
+                if (line == null) return@forEachIndexed
+                for (column in line.indices) {
+                    val symbol = ALPHABET.indexOf(line[column])
+                    if (symbol >= 0) votes[row * layout.columns + column][symbol] += read.weights[row] + recency
+                }
+            }
+        }
+        val builder = StringBuilder(positions + layout.rows)
+        for (row in 0 until layout.rows) {
+            if (row > 0) builder.append('\n')
+            for (column in 0 until layout.columns) {
+                val tally = votes[row * layout.columns + column]
+                var best = ALPHABET.length - 1
+                for (symbol in tally.indices) {
+                    if (tally[symbol] > tally[best]) best = symbol
+                }
+                builder.append(ALPHABET[best])
+            }
+        }
+        return builder.toString()
+    }
+}
@@ -19,27 +19,31 @@ package org.idpass.smartscanner.lib.mrz
 
 import android.annotation.SuppressLint
 import android.app.Activity
+import android.content.Context
 import android.content.Intent
-import android.graphics.Bitmap
+import android.graphics.Rect
 import android.os.Bundle
 import android.util.Log
-import android.view.View
-import android.widget.ImageView
-import androidx.camera.core.ImageProxy
 import com.google.gson.Gson
-import com.google.mlkit.vision.common.InputImage
-import com.google.mlkit.vision.text.TextRecognition
-import com.google.mlkit.vision.text.latin.TextRecognizerOptions
 import org.idpass.smartscanner.api.ScannerConstants
-import org.idpass.smartscanner.lib.R
 import org.idpass.smartscanner.lib.SmartScannerActivity
+import org.idpass.smartscanner.lib.scanner.AnalyzerType
 import org.idpass.smartscanner.lib.scanner.BaseImageAnalyzer
-import org.idpass.smartscanner.lib.scanner.config.ImageResultType
+import org.idpass.smartscanner.lib.scanner.EngineCalibration
+import org.idpass.smartscanner.lib.scanner.FrameMetrics
+import org.idpass.smartscanner.lib.scanner.GuideRoi
+import org.idpass.smartscanner.lib.scanner.LumaImage
+import org.idpass.smartscanner.lib.scanner.RecognizerEngines
+import org.idpass.smartscanner.lib.scanner.RegionTracker
+import org.idpass.smartscanner.lib.scanner.ResultImageEncoder
+import org.idpass.smartscanner.lib.scanner.ScanGeometry
+import org.idpass.smartscanner.lib.scanner.ScannerFrame
+import org.idpass.smartscanner.lib.scanner.config.EnhanceOptions
 import org.idpass.smartscanner.lib.scanner.config.Modes
 import org.idpass.smartscanner.lib.scanner.config.MrzFormat
-import org.idpass.smartscanner.lib.utils.BitmapUtils
-import org.idpass.smartscanner.lib.utils.extension.*
-import java.io.File
+import org.idpass.smartscanner.lib.session.ScannerSession
+import org.idpass.smartscanner.lib.utils.LumaEnhancer
+import org.idpass.smartscanner.mrz.parser.innovatrics.records.MrtdTd1
 import java.net.URLEncoder
 
 open class MRZAnalyzer(
@@ -53,159 +57,196 @@ open class MRZAnalyzer(
     private val withMrzPhoto: Boolean? = null,
     private val captureLog: Boolean? = null,
     private val enableLogging: Boolean? = null,
-    private val isMLKit: Boolean,
+    private val engineType: AnalyzerType = AnalyzerType.MLKIT,
     private val imageResultType: String,
     private val format: String?,
     private val analyzeStart: Long,
-    private val isShowGuide: Boolean? = false
+    private val isShowGuide: Boolean? = false,
+    enhanceOptions: EnhanceOptions? = null,
+    private val locateMrz: Boolean = false
 ) : BaseImageAnalyzer() {
 
-    @SuppressLint("UnsafeExperimentalUsageError", "UnsafeOptInUsageError")
-    override fun analyze(imageProxy: ImageProxy) {
-        val bitmap = BitmapUtils.getBitmap(imageProxy)
-        bitmap?.let { bf ->
-            val rotation = imageProxy.imageInfo.rotationDegrees
-            bf.apply {
-                // Increase brightness and contrast for clearer image to be processed
-                setContrast(1.1F)
-                setBrightness(3F)
-            }
-
-            val rectGuide = activity.findViewById<ImageView>(R.id.scanner_overlay)
-            val viewFinder = activity.findViewById<View>(R.id.view_finder)
-            var inputBitmap = bf
-            var inputRot = rotation
-            var rotatedBF = BitmapUtils.rotateImage(bf, rotation)
+    companion object {
+        const val METRIC_NO_MRZ = "mrz/not-found"
+        // frames whose text cleaned up into an MRZ layout, to compare engines against the frames recognized
+        const val METRIC_READ = "mrz/read"
+        // frames without a located MRZ in a row before one is recognized whole anyway
+        private const val MAX_SKIPPED_FRAMES = 8
+        private const val MRZ_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789<"
 
-            if (isShowGuide != null && isShowGuide) {
-                // try to cropped forcefully
-
-                // Crop preview area
-                val cropHeight = if (rotatedBF.width < viewFinder.width) {
-                    // if preview area larger than analysing image
-                    val koeff = rotatedBF.width.toFloat() / viewFinder!!.width.toFloat()
-                    viewFinder.height.toFloat() * koeff
-                } else {
-                    // if preview area smaller than analysing image
-                    val prc = 100 - (viewFinder.width.toFloat() / (rotatedBF.width.toFloat() / 100f))
-                    viewFinder.height + ((viewFinder.height.toFloat() / 100f) * prc)
+        /**
+         * Calibration of the text engines of [mode] on its recorded frames, expected to read the consensus MRZ.
+         */
+        fun calibration(context: Context, mode: String = Modes.MRZ.value) = EngineCalibration.Task(
+            mode = mode,
+            candidates = RecognizerEngines.TEXT,
+            create = { type -> RecognizerEngines.text(context, type, MRZ_ALPHABET) },
+            matches = { expected, lines ->
+                try {
+                    MRZCleaner.clean(MRZLines.read(lines).raw) == expected
+                } catch (e: Exception) {
+                    false
                 }
-                val cropTop = (rotatedBF.height / 2) - (cropHeight / 2)
-                rotatedBF = Bitmap.createBitmap(rotatedBF, 0, cropTop.toInt(), rotatedBF.width, cropHeight.toInt())
-
-                // Crop MRZ area
-                val ratio = rotatedBF.width.toFloat() / viewFinder.width.toFloat()
-                val x = (25 - 16).toPx * ratio
-                val y = (viewFinder.height - 30.toPx - rectGuide.height) * ratio
-                val width = rectGuide.width * ratio
-                val height = rectGuide.height * ratio
-                inputBitmap = Bitmap.createBitmap(rotatedBF, x.toInt(), y.toInt(), width.toInt(), height.toInt())
-                inputRot = 0
             }
+        )
+    }
 
+    @Deprecated(
+        "The recognizer is picked with engineType",
+        ReplaceWith("MRZAnalyzer(activity, intent, mode, language, label, locale, withPhoto, withMrzPhoto, captureLog, enableLogging, if (isMLKit) AnalyzerType.MLKIT else AnalyzerType.TESSERACT, imageResultType, format, analyzeStart, isShowGuide)")
+    )
+    constructor(
+        activity: Activity,
+        intent: Intent,
+        mode: String = Modes.MRZ.value,
+        language: String? = null,
+        label: String? = null,
+        locale: String? = null,
+        withPhoto: Boolean? = null,
+        withMrzPhoto: Boolean? = null,
+        captureLog: Boolean? = null,
+        enableLogging: Boolean? = null,
+        isMLKit: Boolean,
+        imageResultType: String,
+        format: String?,
+        analyzeStart: Long,
+        isShowGuide: Boolean? = false
+    ) : this(
+        activity, intent, mode, language, label, locale, withPhoto, withMrzPhoto, captureLog, enableLogging,
+        if (isMLKit) AnalyzerType.MLKIT else AnalyzerType.TESSERACT, imageResultType, format, analyzeStart, isShowGuide
+    )
 
-            // Pass image to an ML Kit Vision API
-            Log.d("${SmartScannerActivity.TAG}/SmartScanner", "MRZ MLKit: start")
-            val start = System.currentTimeMillis()
-            val image = InputImage.fromBitmap(inputBitmap, inputRot)
-            val recognizer = TextRecognition.getClient(TextRecognizerOptions.DEFAULT_OPTIONS)
-            Log.d("${SmartScannerActivity.TAG}/SmartScanner", "MRZ MLKit TextRecognition: process")
-
-            recognizer.process(image)
-
-                .addOnSuccessListener { visionText ->
-
-//                    rectGuide.setImageBitmap(cropped);
-
-//                    Log.d(
-//                        "${SmartScannerActivity.TAG}/SmartScanner",
-//                        "rect imagveview box ${rectGuide.width} , ${rectGuide.height}",
-//                    )
-
-                    val timeRequired = System.currentTimeMillis() - start
-                    Log.d(
-                        "${SmartScannerActivity.TAG}/SmartScanner",
-                        "MRZ MLKit TextRecognition: success: $timeRequired ms"
-                    )
-                    var rawFullRead = ""
-                    val blocks = visionText.textBlocks
-
-//                    val boxes = ArrayList<MRZBox>()
-//                    val bdParent = activity.findViewById<RelativeLayout>(R.id.rect_bounding_layout)
-//
-//                    if (bdParent.childCount > 1) {
-//                        bdParent.removeAllViews()
-//                    }
-
-                    for (i in blocks.indices) {
-                        val lines = blocks[i].lines
-                        for (j in lines.indices) {
-                            if (lines[j].text.contains('<')) {
-                                rawFullRead += lines[j].text + "\n"
-
-                                // get boundingBox here
-//                                blocks[i].boundingBox?.let { MRZBox(it) }?.let { boxes.add(it) }
-
-//                                val element = blocks[i].boundingBox?.let { BoundingBoxDraw(activity, it) }
-
-//                                bdParent.addView(element)
-
-                            }
-                        }
-                    }
-
-                    try {
-                        Log.d(
-                            "${SmartScannerActivity.TAG}/SmartScanner",
-                            "Before cleaner: [${
-                                URLEncoder.encode(rawFullRead, "UTF-8")
-                                    .replace("%3C", "<").replace("%0A", "↩")
-                            }]"
-                        )
-                        val cleanMRZ = MRZCleaner.clean(rawFullRead)
-                        Log.d(
-                            "${SmartScannerActivity.TAG}/SmartScanner",
-                            "After cleaner = [${
-                                URLEncoder.encode(cleanMRZ, "UTF-8")
-                                    .replace("%3C", "<").replace("%0A", "↩")
-                            }]"
-                        )
+    private val enhancer = LumaEnhancer.from(enhanceOptions)
+    protected val resultImage = ResultImageEncoder(activity, imageResultType)
+    private val engineDelegate = lazy {
+        ScannerSession.engine("mrz/$engineType") { RecognizerEngines.text(activity, engineType, MRZ_ALPHABET) }
+    }
+    private val engine by engineDelegate
+    // Tesseract only ever gets the MRZ band, whole frames are too slow for it
+    private val bandOnly = engineType != AnalyzerType.MLKIT
+    private val guide = GuideRoi(ScanGeometry::mrzRoi)
+    private val bandDetector = MRZBandDetector()
+    private val tracker = RegionTracker()
+    private var skippedFrames = 0
+    // The layout is detected per frame, a configured TD1 format only asks for the standard TD1 record
+    protected val preferMrtdTd1 = format == MrzFormat.MRTD_TD1.value
+    private var lastLayout: MRZLayout? = null
+    private val accumulator = MRZAccumulator { mrz ->
+        try {
+            MRZCleaner.parse(mrz, preferMrtdTd1)
+            true
+        } catch (e: Exception) {
+            false
+        }
+    }
 
+    override fun close() {
+        if (engineDelegate.isInitialized()) engine.close()
+    }
 
-//                        val tsLong = System.currentTimeMillis() / 1000
-//                        val ts = tsLong.toString()
+    @SuppressLint("UnsafeExperimentalUsageError", "UnsafeOptInUsageError")
+    override fun prepare(frame: ScannerFrame): LumaImage? {
+        // Only the guide area of the Y plane is copied when shown, the engine takes care of the rotation
+        val guideRoi = if (isShowGuide == true) guide.of(geometry, frame) else null
+        // Once MRZ lines have been seen, the next frames only look around them
+        frame.roi = tracker.roi(frame.width, frame.height) ?: if (locateMrz || bandOnly) {
+            mrzBand(frame, guideRoi) ?: return null
+        } else {
+            guideRoi
+        }
+        if (!passesQualityGate(frame, frame.roi)) return null
+        return frame.toLumaImage(enhancer, frame.roi)
+    }
 
-//                        BitmapUtils.saveImage(rotatedBF, "mrz-${ts}-original.png")
-//                        BitmapUtils.saveImage(cropped, "mrz-${ts}-check.png")
-                        processResult(result = cleanMRZ, bitmap = bf, rotation = rotation)
-//                        BitmapUtils.saveImage(cropped, "mrz-${ts}-success.png")
+    // Frames without an MRZ are not recognized, but every few of them the whole search area is, in
+    // case the detector misses a document
+    private fun mrzBand(frame: ScannerFrame, searchArea: Rect?): Rect? {
+        frame.locateMrz(bandDetector, searchArea)?.let { band ->
+            skippedFrames = 0
+            return band
+        }
+        FrameMetrics.increment(METRIC_NO_MRZ)
+        if (bandOnly || ++skippedFrames < MAX_SKIPPED_FRAMES) return null
+        skippedFrames = 0
+        return searchArea ?: Rect(0, 0, frame.width, frame.height)
+    }
 
-                    } catch (e: Exception) {
-                        Log.d("${SmartScannerActivity.TAG}/SmartScanner", e.toString())
-                    }
-                    imageProxy.close()
-                }
-                .addOnFailureListener { e ->
-                    e.printStackTrace()
-                    imageProxy.close()
-                }
+    override fun recognize(frame: ScannerFrame, image: LumaImage) {
+        Log.d("${SmartScannerActivity.TAG}/SmartScanner", "MRZ ${engine.type}: process")
+        val start = System.currentTimeMillis()
+        val lines = try {
+            FrameMetrics.measure(RecognizerEngines.metric(engine.type)) { engine.recognize(image) }
+        } catch (e: Exception) {
+            Log.e("${SmartScannerActivity.TAG}/SmartScanner", "MRZ ${engine.type}: recognition failed", e)
+            null
+        }
+        Log.d("${SmartScannerActivity.TAG}/SmartScanner", "MRZ ${engine.type}: ${System.currentTimeMillis() - start} ms")
+        // Results are handled on the main thread, like the ML Kit listeners always did
+        activity.runOnUiThread {
+            // MRZ lines are rebuilt from the word boxes, ML Kit may split them over blocks
+            if (lines != null) handleRead(frame, MRZLines.read(lines))
+            frame.close()
+        }
+    }
 
+    private fun handleRead(frame: ScannerFrame, read: MRZLines.Read) {
+        val rawFullRead = read.raw
+        val bounds = read.bounds?.let { frame.toSensor(it) }
+        if (bounds != null) tracker.hit(bounds) else tracker.miss()
 
+        try {
+            Log.d(
+                "${SmartScannerActivity.TAG}/SmartScanner",
+                "Before cleaner: [${
+                    URLEncoder.encode(rawFullRead, "UTF-8")
+                        .replace("%3C", "<").replace("%0A", "↩")
+                }]"
+            )
+            val cleanMRZ = MRZCleaner.clean(rawFullRead)
+            FrameMetrics.increment(METRIC_READ)
+            val layout = MRZLayout.detect(cleanMRZ)
+            if (layout != lastLayout) {
+                Log.d("${SmartScannerActivity.TAG}/SmartScanner", "MRZ layout: $layout (configured: $format)")
+                lastLayout = layout
+            }
+            Log.d(
+                "${SmartScannerActivity.TAG}/SmartScanner",
+                "After cleaner = [${
+                    URLEncoder.encode(cleanMRZ, "UTF-8")
+                        .replace("%3C", "<").replace("%0A", "↩")
+                }]"
+            )
+            // Votes of the previous frames outweigh a character misread in this one, weighted by the
+            // confidence of each line when the engine reports it
+            val consensus = accumulator.add(cleanMRZ, lineWeights(read, cleanMRZ))
+            if (consensus != null) {
+                frameRecorder?.record(frame, consensus)
+                processResult(result = consensus, frame = frame)
+            } else {
+                Log.d("${SmartScannerActivity.TAG}/SmartScanner", "MRZ: no valid consensus yet")
+            }
+        } catch (e: Exception) {
+            Log.d("${SmartScannerActivity.TAG}/SmartScanner", e.toString())
         }
     }
 
-    internal open fun processResult(result: String, bitmap: Bitmap, rotation: Int) {
-        val imagePath = activity.cacheImagePath()
-        bitmap.cropCenter().cacheImageToLocal(
-            imagePath,
-            rotation,
-            if (imageResultType == ImageResultType.BASE_64.value) 40 else 80
-        )
-        val imageFile = File(imagePath)
-        val imageString = if (imageResultType == ImageResultType.BASE_64.value) imageFile.encodeBase64() else imagePath
-        val mrz = when (format) {
-            MrzFormat.MRTD_TD1.value -> MRZResult.formatMrtdTd1Result(MRZCleaner.parseAndCleanMrtdTd1(result), imageString)
-            else -> MRZResult.formatMrzResult(MRZCleaner.parseAndClean(result), imageString)
+    // Cleaning drops the text above the MRZ, so the confidences are matched from the last line up
+    private fun lineWeights(read: MRZLines.Read, cleanMRZ: String): FloatArray? {
+        val confidences = read.confidences ?: return null
+        val rows = cleanMRZ.count { it == '\n' } + 1
+        if (confidences.size < rows) return null
+        return confidences.copyOfRange(confidences.size - rows, confidences.size)
+    }
+
+    internal open fun processResult(result: String, frame: ScannerFrame) {
+        // Parse first so that frames with invalid check digits never pay for the result image
+        startResult()
+        val record = MRZCleaner.parse(result, preferMrtdTd1)
+        val imageString = encodeResultImage(resultImage, frame).image
+        val mrz = if (record is MrtdTd1) {
+            MRZResult.formatMrtdTd1Result(record, imageString)
+        } else {
+            MRZResult.formatMrzResult(record, imageString)
         }
         if (intent.action == ScannerConstants.IDPASS_SMARTSCANNER_MRZ_INTENT ||
             intent.action == ScannerConstants.IDPASS_SMARTSCANNER_ODK_MRZ_INTENT
@@ -224,8 +265,7 @@ open class MRZAnalyzer(
         data.putExtra(SmartScannerActivity.SCANNER_IMAGE_TYPE, imageResultType)
         data.putExtra(SmartScannerActivity.SCANNER_RESULT, result)
         data.putExtra(ScannerConstants.MODE, mode)
-        activity.setResult(Activity.RESULT_OK, data)
-        activity.finish()
+        finishWithResult(data)
     }
 
     private fun sendBundleResult(mrzResult: MRZResult? = null) {
@@ -262,7 +302,6 @@ open class MRZAnalyzer(
         for (key in bundle.keySet()) {
             result.putExtra(prefix + key, bundle.getString(key))
         }
-        activity.setResult(Activity.RESULT_OK, result)
-        activity.finish()
+        finishWithResult(result)
     }
 }
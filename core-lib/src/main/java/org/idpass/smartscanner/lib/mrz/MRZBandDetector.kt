@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.mrz
+
+import android.graphics.Rect
+import android.graphics.RectF
+import org.idpass.smartscanner.lib.scanner.SensorRoi
+import java.nio.ByteBuffer
+import kotlin.math.abs
+import kotlin.math.max
+
+/**
+ * Finds the machine readable zone on a luma (Y) plane, so that only that band goes to the recognizer.
+ *
+ * The plane is box-downsampled to about [targetSize] pixels and turned upright, then rows are profiled
+ * by their share of strong horizontal gradients (character strokes). Runs of such rows make text lines,
+ * and the lowest two or three lines that are evenly spaced, equally tall, left aligned, long enough
+ * for 30 to 44 characters and followed by a margin are taken as the MRZ.
+ * Not thread safe, use one detector per analyzer.
+ */
+class MRZBandDetector(private val targetSize: Int = 320) {
+
+    companion object {
+        private const val MIN_GRADIENT = 20
+        // share of a row that has to be strokes for the row to be text
+        private const val MIN_ROW_DENSITY = 0.1F
+        // MRZ lines are at least this many times longer than tall
+        private const val MIN_LINE_ASPECT = 15
+        // widest gap within a line, in line heights
+        private const val MAX_GAP = 2
+        private const val MAX_HEIGHT_RATIO = 1.8F
+        private const val MAX_SPACING_RATIO = 1.4F
+        private const val MAX_LEFT_OFFSET = 0.06F
+        private const val MIN_WIDTH_RATIO = 0.75F
+    }
+
+    private class Band(val top: Int, val bottom: Int, var left: Int = 0, var right: Int = 0) {
+        val height get() = bottom - top
+        val center get() = (top + bottom) / 2F
+        val width get() = right - left
+
+        fun widen(start: Int, end: Int) {
+            if (start >= 0 && end - start > width) {
+                left = start
+                right = end
+            }
+        }
+    }
+
+    private var row = ByteArray(0)
+    private var sums = IntArray(0)
+    private var small = IntArray(0)
+    private var upright = IntArray(0)
+    private var strong = BooleanArray(0)
+    private var rowCounts = IntArray(0)
+
+    /**
+     * MRZ band of the [width] x [height] region at ([left], [top]) of a Y plane with the given
+     * [rowStride], in sensor coordinates and padded by about one line, or null if no MRZ is found.
+     * [rotation] is the clockwise rotation that makes the frame upright.
+     */
+    fun locate(plane: ByteBuffer, rowStride: Int, left: Int, top: Int, width: Int, height: Int, rotation: Int): Rect? {
+        val step = max(1, (max(width, height) + targetSize - 1) / targetSize)
+        val sw = width / step
+        val sh = height / step
+        if (sw < 16 || sh < 16) return null
+        downsample(plane, rowStride, left, top, width, step, sw, sh)
+        val rotated = rotation == 90 || rotation == 270
+        val uw = if (rotated) sh else sw
+        val uh = if (rotated) sw else sh
+        rotate(sw, sh, rotation)
+
+        val bands = textLines(uw, uh)
+        val mrz = mrzLines(bands, uw) ?: return null
+        val lineHeight = mrz.sumOf { it.height }.toFloat() / mrz.size
+        val band = RectF(
+            (mrz.minOf { it.left } - 1.5F * lineHeight) * step,
+            (mrz.first().top - 0.75F * lineHeight) * step,
+            (mrz.maxOf { it.right } + 1.5F * lineHeight) * step,
+            (mrz.last().bottom + 0.75F * lineHeight) * step
+        )
+        return SensorRoi.toSensor(band, sw * step, sh * step, rotation)?.apply { offset(left, top) }
+    }
+
+    private fun downsample(plane: ByteBuffer, rowStride: Int, left: Int, top: Int, width: Int, step: Int, sw: Int, sh: Int) {
+        if (row.size < width) row = ByteArray(width)
+        if (sums.size < sw) sums = IntArray(sw)
+        if (small.size < sw * sh) {
+            small = IntArray(sw * sh)
+            upright = IntArray(sw * sh)
+            strong = BooleanArray(sw * sh)
+        }
+        val buffer = plane.duplicate()
+        val area = step * step
+        for (y in 0 until sh) {
+            sums.fill(0, 0, sw)
+            for (dy in 0 until step) {
+                buffer.position((top + y * step + dy) * rowStride + left)
+                buffer.get(row, 0, sw * step)
+                for (x in 0 until sw * step) sums[x / step] += row[x].toInt() and 0xFF
+            }
+            for (x in 0 until sw) small[y * sw + x] = sums[x] / area
+        }
+    }
+
+    // Same mapping as SensorRoi.toSensor, the other way round
+    private fun rotate(sw: Int, sh: Int, rotation: Int) {
+        for (sy in 0 until sh) {
+            for (sx in 0 until sw) {
+                val index = when (rotation) {
+                    90 -> sx * sh + (sh - 1 - sy)
+                    180 -> (sh - 1 - sy) * sw + (sw - 1 - sx)
+                    270 -> (sw - 1 - sx) * sh + sy
+                    else -> sy * sw + sx
+                }
+                upright[index] = small[sy * sw + sx]
+            }
+        }
+    }
+
+    private fun textLines(uw: Int, uh: Int): List<Band> {
+        // Horizontal gradient, thresholded against the frame's own average
+        var total = 0L
+        for (y in 0 until uh) {
+            for (x in 1 until uw - 1) total += abs(upright[y * uw + x + 1] - upright[y * uw + x - 1])
+        }
+        val threshold = max(MIN_GRADIENT, (2 * total / (uh * (uw - 2))).toInt())
+        if (rowCounts.size < uh) rowCounts = IntArray(uh)
+        for (y in 0 until uh) {
+            var count = 0
+            for (x in 1 until uw - 1) {
+                val edge = abs(upright[y * uw + x + 1] - upright[y * uw + x - 1]) >= threshold
+                strong[y * uw + x] = edge
+                if (edge) count++
+            }
+            rowCounts[y] = count
+        }
+
+        // Runs of text rows, bridging single quiet rows
+        val bands = ArrayList<Band>()
+        val minCount = (uw * MIN_ROW_DENSITY).toInt()
+        var start = -1
+        var quiet = 0
+        for (y in 0..uh) {
+            val text = y < uh && rowCounts[y] >= minCount
+            if (text) {
+                if (start < 0) start = y
+                quiet = 0
+            } else if (start >= 0 && (++quiet > 1 || y == uh)) {
+                split(start, y - quiet + 1, bands, uw, uh)
+                start = -1
+                quiet = 0
+            }
+        }
+        return bands
+    }
+
+    // Lines of a tilted MRZ touch, they are told apart by the rows where the stroke count drops to a valley
+    private fun split(top: Int, bottom: Int, bands: MutableList<Band>, uw: Int, uh: Int) {
+        var peak = 0
+        for (y in top until bottom) peak = max(peak, rowCounts[y])
+        var start = top
+        for (y in top..bottom) {
+            if (y < bottom && rowCounts[y] * 2 >= peak) continue
+            if (y - start >= 2) bands.add(extentOf(Band(start, y), uw, uh))
+            start = y + 1
+        }
+    }
+
+    private fun extentOf(band: Band, uw: Int, uh: Int): Band {
+        // Longest run of stroke columns with gaps of at most a couple of characters, which leaves out
+        // text further along the row. Columns with strokes above and below the band are document edges.
+        val maxGap = MAX_GAP * band.height
+        var runStart = -1
+        var lastText = -1
+        for (x in 0 until uw) {
+            var count = 0
+            for (y in band.top until band.bottom) if (strong[y * uw + x]) count++
+            if (count * 3 < band.height) continue
+            if (band.top >= 2 && band.bottom + 1 < uh && strong[(band.top - 2) * uw + x] && strong[(band.bottom + 1) * uw + x]) continue
+            if (runStart < 0 || x - lastText > maxGap) {
+                band.widen(runStart, lastText + 1)
+                runStart = x
+            }
+            lastText = x
+        }
+        band.widen(runStart, lastText + 1)
+        return band
+    }
+
+    private fun mrzLines(bands: List<Band>, uw: Int): List<Band>? {
+        val lines = bands.filter { it.width >= MIN_LINE_ASPECT * it.height }
+        var best: List<Band>? = null
+        for (rows in 2..3) {
+            for (first in 0..lines.size - rows) {
+                val group = lines.subList(first, first + rows)
+                if (!isMrz(group, uw) || hasTextBelow(group, bands)) continue
+                val current = best
+                // the MRZ is the lowest text of the document, on equal footing three lines beat two
+                if (current == null || group.last().bottom > current.last().bottom ||
+                    group.last().bottom == current.last().bottom && group.size > current.size
+                ) {
+                    best = group
+                }
+            }
+        }
+        return best
+    }
+
+    // The MRZ is the last text of a document, there is at least a line spacing of margin below it
+    private fun hasTextBelow(group: List<Band>, bands: List<Band>): Boolean {
+        val last = group.last()
+        val spacing = (last.center - group.first().center) / (group.size - 1)
+        return bands.any { it.top >= last.bottom && it.top - last.bottom < spacing && it.left < last.right && it.right > last.left }
+    }
+
+    private fun isMrz(group: List<Band>, uw: Int): Boolean {
+        if (group.maxOf { it.height } > MAX_HEIGHT_RATIO * group.minOf { it.height }) return false
+        val lineHeight = group.sumOf { it.height }.toFloat() / group.size
+        val spacings = (1 until group.size).map { group[it].center - group[it - 1].center }
+        if (spacings.any { it < lineHeight || it > 2.5F * lineHeight }) return false
+        if (spacings.maxOf { it } > MAX_SPACING_RATIO * spacings.minOf { it }) return false
+        if (group.maxOf { it.left } - group.minOf { it.left } > MAX_LEFT_OFFSET * uw) return false
+        return group.minOf { it.width } >= MIN_WIDTH_RATIO * group.maxOf { it.width }
+    }
+}
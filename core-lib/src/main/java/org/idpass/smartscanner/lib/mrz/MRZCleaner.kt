@@ -26,102 +26,168 @@ import java.net.URLEncoder
 
 
 object MRZCleaner {
-    private var previousMRZString:String? = null
+
+    private const val DROP = '\u0000'
+    private const val NEWLINE = '\n'
+    private const val FILLER = '<'
+
+    // Latin-1 translation table: MRZ characters map to themselves, '«' to the filler and
+    // everything else to DROP. Covers 256 entries so that '«' and '¢' need no special casing.
+    private val TRANSLATION = CharArray(256) { DROP }.apply {
+        for (c in 'A'..'Z') this[c.code] = c
+        for (c in '0'..'9') this[c.code] = c
+        this[FILLER.code] = FILLER
+        this['«'.code] = FILLER
+        this[NEWLINE.code] = NEWLINE
+    }
+
+    // Characters OCR reads instead of a filler when they sit between two fillers ("<c<" -> "<<<").
+    // Matches of the same character do not overlap, so "<c<c<" only becomes "<<<c<" as with String.replace.
+    private const val FILLER_NOISE = "ceEKSC¢({["
+
+    private val scratch = ThreadLocal<CharArray>()
+
+    private fun buffer(size: Int): CharArray {
+        val cached = scratch.get()
+        if (cached != null && cached.size >= size) return cached
+        return CharArray(maxOf(size, 128)).also { scratch.set(it) }
+    }
+
+    private fun isDocumentCode(c: Char) = c == 'P' || c == 'I' || c == 'A' || c == 'C' || c == 'V'
+
+    private fun translate(c: Char) = if (c.code < TRANSLATION.size) TRANSLATION[c.code] else DROP
+
+    /**
+     * Text of [mrz] from its document code on, without blanks and runs of new lines, with the filler noise
+     * and "PK"/"PC" document codes fixed and restricted to the MRZ alphabet: what the former regular
+     * expression chain produced before the lines were cut.
+     */
+    internal fun filter(mrz: String): String {
+        val length = filterInto(mrz)
+        return String(buffer(length), 0, length)
+    }
+
+    /**
+     * Runs [filter] into the scratch buffer and returns the length written.
+     */
+    private fun filterInto(mrz: String): Int {
+        val buf = buffer(mrz.length)
+
+        // Pass 1: skip everything before the document code, drop blanks, collapse new lines, map '«'
+        var length = 0
+        var start = 0
+        while (start < mrz.length && !isDocumentCode(mrz[start])) start++
+        for (i in start until mrz.length) {
+            val c = mrz[i]
+            if (c == ' ' || c == '\t' || c == '\r') continue
+            if (c == NEWLINE && length > 0 && buf[length - 1] == NEWLINE) continue
+            buf[length++] = if (c == '«') FILLER else c
+        }
+
+        // Pass 2, in place: filler noise, "PK"/"PC" document codes, then drop anything outside the MRZ alphabet
+        var out = 0
+        var previous = DROP
+        var beforePrevious = DROP
+        var beforePreviousReplaced = false
+        var previousReplaced = false
+        for (i in 0 until length) {
+            val c = buf[i]
+            val next = if (i + 1 < length) buf[i + 1] else DROP
+            val replaced = previous == FILLER && next == FILLER && FILLER_NOISE.indexOf(c) >= 0 &&
+                    !(beforePrevious == c && beforePreviousReplaced)
+            val translated = when {
+                replaced -> FILLER
+                i == 1 && previous == 'P' && (c == 'K' || c == 'C') -> FILLER
+                else -> translate(c)
+            }
+            if (translated != DROP) buf[out++] = translated
+            beforePrevious = previous
+            beforePreviousReplaced = previousReplaced
+            previous = c
+            previousReplaced = replaced
+        }
+        while (out > 0 && buf[out - 1] == NEWLINE) out--
+        return out
+    }
 
     fun clean(mrz: String): String {
-        var result = mrz
-            .replace(Regex("^[^PIACV]*"), "") // Remove everything before P, I, A or C
-            .replace(Regex("[ \\t\\r]+"), "") // Remove any white space
-            .replace(Regex("\\n+"), "\n") // Remove extra new lines
-            .replace("«", "<")
-            .replace("<c<", "<<<")
-            .replace("<e<", "<<<")
-            .replace("<E<", "<<<") // Good idea? Maybe not.
-            .replace("<K<", "<<<") // Good idea? Maybe not.
-            .replace("<S<", "<<<") // Good idea? Maybe not.
-            .replace("<C<", "<<<") // Good idea? Maybe not.
-            .replace("<¢<", "<<<")
-            .replace("<(<", "<<<")
-            .replace("<{<", "<<<")
-            .replace("<[<", "<<<")
-            .replace(Regex("^P[KC]"), "P<")
-            .replace(Regex("[^A-Z0-9<\\n]"), "") // Remove any other char
-            .trim()
-
-        if (result.contains("<") && (
-                    result.startsWith("P") ||
-                    result.startsWith("I") ||
-                    result.startsWith("A") ||
-                    result.startsWith("C") ||
-                    result.startsWith("V"))
-        ) {
-            when (result.filter{ it == '\n' }.count()) {
-                1 -> {
-                    if (result.length > 89) {
-                        result = result.slice(IntRange(0, 88))
-                    }
-                }
-                2 -> {
-                    if (result.length > 92) {
-                        result = result.slice(IntRange(0, 91))
-                    }
-                }
-                else -> throw IllegalArgumentException("Invalid MRZ string. Wrong number of lines.")
+        val out = filterInto(mrz)
+        val buf = buffer(out)
+
+        var hasFiller = false
+        var lines = 1
+        var longestLine = 0
+        var lineStart = 0
+        for (i in 0 until out) {
+            if (buf[i] == FILLER) hasFiller = true
+            else if (buf[i] == NEWLINE) {
+                longestLine = maxOf(longestLine, i - lineStart)
+                lineStart = i + 1
+                lines++
             }
-        } else {
+        }
+        longestLine = maxOf(longestLine, out - lineStart)
+        if (!hasFiller || !isDocumentCode(buf[0])) {
+            val result = String(buf, 0, out)
             Log.d(SmartScannerActivity.TAG, "Error = [${URLEncoder.encode(result, "UTF-8").replace("%3C", "<").replace("%0A", "↩")}]")
             throw IllegalArgumentException("Invalid MRZ string. No '<' or 'P', 'I', 'A', 'C', 'V' detected.")
         }
+        if (lines != 2 && lines != 3) throw IllegalArgumentException("Invalid MRZ string. Wrong number of lines.")
+        val layout = MRZLayout.detect(lines, longestLine, buf[0])
+            ?: throw IllegalArgumentException("Invalid MRZ string. Unknown layout.")
 
-        return result
+        // Every line is cut to the layout width, lines missing a few trailing fillers are padded back
+        val result = StringBuilder(layout.rows * (layout.columns + 1))
+        lineStart = 0
+        for (i in 0..out) {
+            if (i < out && buf[i] != NEWLINE) continue
+            if (lineStart > 0) result.append(NEWLINE)
+            val length = i - lineStart
+            result.append(buf, lineStart, minOf(length, layout.columns))
+            if (length < layout.columns && layout.columns - length <= MRZLayout.MAX_MISSING_FILLERS) {
+                repeat(layout.columns - length) { result.append(FILLER) }
+            }
+            lineStart = i + 1
+        }
+        return result.toString()
     }
 
-    private fun String.replaceNumbertoChar(): String {
-        return this
-            .replace('0', 'O')
-            .replace("1", "I")
-            .replace("8", "B")
-            .replace("5", "S")
-            .replace("2", "Z")
-            .replace("3", "J")
+    /**
+     * Parses [mrz] with the record type of its layout. TD1 reads are parsed as [MrtdTd1] when
+     * [preferMrtdTd1] is set, otherwise the parser picks the record, country specific ones included.
+     */
+    fun parse(mrz: String, preferMrtdTd1: Boolean = false): MrzRecord {
+        return if (preferMrtdTd1 && MRZLayout.detect(mrz) == MRZLayout.TD1) parseAndCleanMrtdTd1(mrz) else parseAndClean(mrz)
     }
 
+    private fun MrzRecord.isValid() = validDateOfBirth && validDocumentNumber && validExpirationDate || validComposite
+
     fun parseAndClean(mrz: String): MrzRecord {
-        val record = MrzParser.parse(mrz)
-
-        Log.d(SmartScannerActivity.TAG, "Previous Scan: $previousMRZString")
-        if (record.validDateOfBirth && record.validDocumentNumber && record.validExpirationDate || record.validComposite) {
-            record.givenNames = record.givenNames.replaceNumbertoChar()
-            record.surname = record.surname.replaceNumbertoChar()
-            record.issuingCountry = record.issuingCountry.replaceNumbertoChar()
-            record.nationality = record.nationality.replaceNumbertoChar()
-            return record
-        } else {
-            Log.d(SmartScannerActivity.TAG, "Still accept scanning.")
-            Log.d(SmartScannerActivity.TAG, "Previous Scan: $previousMRZString")
-            if (mrz != previousMRZString) {
-                previousMRZString = mrz
-            }
-            throw IllegalArgumentException("Invalid check digits.")
+        // Confusables outside of each field's alphabet are mapped back first (e.g. digits in names)
+        val normalized = MRZCorrector.normalize(mrz) ?: mrz
+        val record = MrzParser.parse(normalized)
+        if (record.isValid()) return record
+
+        MRZCorrector.correct(normalized)?.let { corrected ->
+            Log.d(SmartScannerActivity.TAG, "Corrected MRZ: ${corrected.replace("\n", "↩")}")
+            val correctedRecord = MrzParser.parse(corrected)
+            if (correctedRecord.isValid()) return correctedRecord
         }
+        Log.d(SmartScannerActivity.TAG, "Still accept scanning.")
+        throw IllegalArgumentException("Invalid check digits.")
     }
 
     fun parseAndCleanMrtdTd1(mrz: String): MrtdTd1 {
-        val record = MrzParser.parseToMrtdTd1(mrz)
-
-        Log.d(SmartScannerActivity.TAG, "Previous Scan: $previousMRZString")
-        if (record.validDateOfBirth && record.validDocumentNumber && record.validExpirationDate || record.validComposite) {
-            record.givenNames = record.givenNames.replaceNumbertoChar()
-            record.surname = record.surname.replaceNumbertoChar()
-            record.issuingCountry = record.issuingCountry.replaceNumbertoChar()
-            record.nationality = record.nationality.replaceNumbertoChar()
-            return record
-        } else {
-            Log.d(SmartScannerActivity.TAG, "Still accept scanning.")
-            if (mrz != previousMRZString) {
-                previousMRZString = mrz
-            }
-            throw IllegalArgumentException("Invalid check digits.")
+        val normalized = MRZCorrector.normalize(mrz) ?: mrz
+        val record = MrzParser.parseToMrtdTd1(normalized)
+        if (record.isValid()) return record
+
+        MRZCorrector.correct(normalized)?.let { corrected ->
+            Log.d(SmartScannerActivity.TAG, "Corrected MRZ: ${corrected.replace("\n", "↩")}")
+            val correctedRecord = MrzParser.parseToMrtdTd1(corrected)
+            if (correctedRecord.isValid()) return correctedRecord
         }
+        Log.d(SmartScannerActivity.TAG, "Still accept scanning.")
+        throw IllegalArgumentException("Invalid check digits.")
     }
 }
\ No newline at end of file
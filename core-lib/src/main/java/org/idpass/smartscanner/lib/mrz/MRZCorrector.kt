@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.mrz
+
+/**
+ * Check digit guided correction of OCR confusions in a cleaned MRZ string.
+ *
+ * Every field has an alphabet (digits for dates and check digits, letters for country codes and
+ * names, both for document numbers). Characters outside of it are first mapped to their confusable
+ * counterpart, e.g. an `O` in a date becomes `0`. If a check digit still fails, look-alikes allowed in
+ * the field are tried on the failing fields, fewest edits first and at most one per field: letter and
+ * digit look-alikes (O/0, I/1, B/8, S/5, ...) and digits OCR-B readers mix up (3/8, 5/6, 1/7, ...).
+ * A check digit cannot tell two edits in its field apart from the real value, and fields whose own
+ * check digit passes are left alone. Corrections never produce an impossible date.
+ *
+ * A correction is only returned when it is the single candidate passing every check digit and the
+ * composite digit at its edit count, within [MAX_CANDIDATES] candidates; anything else is a guess.
+ */
+object MRZCorrector {
+
+    const val MAX_EDITS = 2
+    const val MAX_CANDIDATES = 5000
+
+    private const val DIGITS = "0123456789"
+    private const val LETTERS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ<"
+    private const val ALPHANUMERICS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789<"
+    private const val CHECK_DIGIT = "0123456789<"
+    private const val SEX = "MFX<"
+
+    // letters and digits read for one another; U and L are left out as their check digit values equal
+    // those of 0 and 1, so a check digit could never tell them apart
+    private val CONFUSABLES = listOf("0ODQ", "1I", "2Z", "3J", "4A", "5S", "6G", "7T", "8B")
+    // digits read for one another
+    private val DIGIT_CONFUSABLES = listOf("08", "38", "56", "68", "89", "17")
+
+    private class Field(val row: Int, val start: Int, val length: Int, val alphabet: String)
+
+    private class Check(val fields: List<Field>, val row: Int, val position: Int)
+
+    private class Layout(val fields: List<Field>, val checks: List<Check>, val dates: List<Field>)
+
+    private class Suspect(val row: Int, val column: Int, val field: Field, val alternatives: CharArray)
+
+    /**
+     * Maps characters outside of their field's alphabet to an allowed confusable, or returns null when
+     * the string has no known MRZ layout.
+     */
+    fun normalize(mrz: String): String? {
+        val lines = mrz.split('\n')
+        val layout = layoutOf(lines) ?: return null
+        return join(normalized(lines, layout))
+    }
+
+    /**
+     * Corrected MRZ passing every check digit, or null if no single candidate was found within the limits.
+     */
+    fun correct(mrz: String): String? {
+        val lines = mrz.split('\n')
+        val layout = layoutOf(lines) ?: return null
+        val chars = normalized(lines, layout)
+        if (layout.checks.all { isValid(chars, it) }) return join(chars)
+        // TD1 document numbers longer than 9 characters continue in the optional data, left alone
+        if (lines.size == 3 && chars[0][14] == '<') return null
+
+        // Only positions of failing checks are worth substituting, a field passing its own check is trusted
+        val (failing, passing) = layout.checks.partition { !isValid(chars, it) }
+        val trusted = HashSet<Pair<Int, Int>>()
+        for (check in passing.filter { it.fields.size == 1 }) {
+            val field = check.fields[0]
+            for (column in field.start until field.start + field.length) trusted.add(field.row to column)
+            trusted.add(check.row to check.position)
+        }
+        val suspects = LinkedHashMap<Pair<Int, Int>, Suspect>()
+        for (check in failing) {
+            for (field in check.fields) {
+                for (column in field.start until field.start + field.length) {
+                    if (field.row to column in trusted) continue
+                    val alternatives = alternativesOf(chars[field.row][column], field.alphabet)
+                    if (alternatives.isNotEmpty()) suspects[field.row to column] = Suspect(field.row, column, field, alternatives)
+                }
+            }
+        }
+        val positions = suspects.values.toList()
+        val edited = HashSet<Field>()
+        var evaluated = 0
+        var found: String? = null
+        var ambiguous = false
+
+        // Returns true once a second valid candidate shows the correction is ambiguous
+        fun search(from: Int, edits: Int): Boolean {
+            if (edits == 0) {
+                evaluated++
+                if (!layout.checks.all { isValid(chars, it) } || !layout.dates.all { isDate(chars, it) }) return false
+                if (found == null) {
+                    found = join(chars)
+                    return false
+                }
+                ambiguous = true
+                return true
+            }
+            for (index in from until positions.size) {
+                val suspect = positions[index]
+                if (!edited.add(suspect.field)) continue
+                val original = chars[suspect.row][suspect.column]
+                for (alternative in suspect.alternatives) {
+                    if (evaluated >= MAX_CANDIDATES) break
+                    chars[suspect.row][suspect.column] = alternative
+                    if (search(index + 1, edits - 1)) return true
+                }
+                chars[suspect.row][suspect.column] = original
+                edited.remove(suspect.field)
+                if (evaluated >= MAX_CANDIDATES) return false
+            }
+            return false
+        }
+
+        for (edits in 1..MAX_EDITS) {
+            search(0, edits)
+            // a candidate is only unique if every other one of its edit count was tried
+            if (ambiguous || evaluated >= MAX_CANDIDATES) return null
+            found?.let { return it }
+        }
+        return null
+    }
+
+    fun checkDigit(value: CharSequence): Int {
+        val weights = intArrayOf(7, 3, 1)
+        var sum = 0
+        for (i in value.indices) {
+            sum += valueOf(value[i]) * weights[i % 3]
+        }
+        return sum % 10
+    }
+
+    private fun valueOf(c: Char): Int = when (c) {
+        in '0'..'9' -> c - '0'
+        in 'A'..'Z' -> c - 'A' + 10
+        else -> 0
+    }
+
+    private fun isValid(chars: Array<CharArray>, check: Check): Boolean {
+        val builder = StringBuilder()
+        for (field in check.fields) builder.append(chars[field.row], field.start, field.length)
+        val digit = chars[check.row][check.position]
+        if (digit !in CHECK_DIGIT) return false
+        return valueOf(digit) == checkDigit(builder)
+    }
+
+    // YYMMDD with a possible month and day
+    private fun isDate(chars: Array<CharArray>, field: Field): Boolean {
+        val line = chars[field.row]
+        val month = (line[field.start + 2] - '0') * 10 + (line[field.start + 3] - '0')
+        val day = (line[field.start + 4] - '0') * 10 + (line[field.start + 5] - '0')
+        return month in 1..12 && day in 1..31
+    }
+
+    /**
+     * Look-alikes of [c] allowed in a field of [alphabet]: letters map to their digit look-alikes in digit
+     * fields and digits to their letter look-alikes in letter fields, digits also to the digits they are
+     * mixed up with.
+     */
+    private fun alternativesOf(c: Char, alphabet: String): CharArray {
+        val alternatives = StringBuilder()
+        CONFUSABLES.firstOrNull { c in it }?.let { alternatives.append(it) }
+        for (group in DIGIT_CONFUSABLES) if (c in group) alternatives.append(group)
+        return alternatives.filter { it != c && it in alphabet }.toSet().toCharArray()
+    }
+
+    private fun normalized(lines: List<String>, layout: Layout): Array<CharArray> {
+        val chars = Array(lines.size) { lines[it].toCharArray() }
+        for (field in layout.fields) {
+            for (column in field.start until field.start + field.length) {
+                val c = chars[field.row][column]
+                if (c in field.alphabet) continue
+                val group = CONFUSABLES.firstOrNull { c in it } ?: continue
+                group.firstOrNull { it in field.alphabet }?.let { chars[field.row][column] = it }
+            }
+        }
+        return chars
+    }
+
+    private fun join(chars: Array<CharArray>) = chars.joinToString("\n") { String(it) }
+
+    private fun layoutOf(lines: List<String>): Layout? {
+        val layout = MRZLayout.detect(lines) ?: return null
+        if (lines.any { it.length != layout.columns }) return null
+        return when (layout) {
+            MRZLayout.TD1 -> td1()
+            else -> twoLines(layout.columns, visa = layout == MRZLayout.MRV_A || layout == MRZLayout.MRV_B)
+        }
+    }
+
+    private fun td1(): Layout {
+        val documentNumber = Field(0, 5, 9, ALPHANUMERICS)
+        val documentNumberCheck = Field(0, 14, 1, CHECK_DIGIT)
+        val optional1 = Field(0, 15, 15, ALPHANUMERICS)
+        val birthDate = Field(1, 0, 6, DIGITS)
+        val birthDateCheck = Field(1, 6, 1, CHECK_DIGIT)
+        val expiryDate = Field(1, 8, 6, DIGITS)
+        val expiryDateCheck = Field(1, 14, 1, CHECK_DIGIT)
+        val optional2 = Field(1, 18, 11, ALPHANUMERICS)
+        val fields = listOf(
+            Field(0, 0, 2, LETTERS), Field(0, 2, 3, LETTERS), documentNumber, documentNumberCheck, optional1,
+            birthDate, birthDateCheck, Field(1, 7, 1, SEX), expiryDate, expiryDateCheck,
+            Field(1, 15, 3, LETTERS), optional2, Field(1, 29, 1, CHECK_DIGIT),
+            Field(2, 0, 30, LETTERS)
+        )
+        val checks = listOf(
+            Check(listOf(documentNumber), 0, 14),
+            Check(listOf(birthDate), 1, 6),
+            Check(listOf(expiryDate), 1, 14),
+            Check(
+                listOf(
+                    documentNumber, documentNumberCheck, optional1,
+                    birthDate, birthDateCheck, expiryDate, expiryDateCheck, optional2
+                ), 1, 29
+            )
+        )
+        return Layout(fields, checks, listOf(birthDate, expiryDate))
+    }
+
+    private fun twoLines(columns: Int, visa: Boolean): Layout {
+        val documentNumber = Field(1, 0, 9, ALPHANUMERICS)
+        val documentNumberCheck = Field(1, 9, 1, CHECK_DIGIT)
+        val birthDate = Field(1, 13, 6, DIGITS)
+        val birthDateCheck = Field(1, 19, 1, CHECK_DIGIT)
+        val expiryDate = Field(1, 21, 6, DIGITS)
+        val expiryDateCheck = Field(1, 27, 1, CHECK_DIGIT)
+        val fields = mutableListOf(
+            Field(0, 0, 2, LETTERS), Field(0, 2, 3, LETTERS), Field(0, 5, columns - 5, LETTERS),
+            documentNumber, documentNumberCheck, Field(1, 10, 3, LETTERS),
+            birthDate, birthDateCheck, Field(1, 20, 1, SEX),
+            expiryDate, expiryDateCheck
+        )
+        val checks = mutableListOf(
+            Check(listOf(documentNumber), 1, 9),
+            Check(listOf(birthDate), 1, 19),
+            Check(listOf(expiryDate), 1, 27)
+        )
+        val composite = listOf(documentNumber, documentNumberCheck, birthDate, birthDateCheck, expiryDate, expiryDateCheck)
+        when {
+            // visas have no composite check digit
+            visa -> fields.add(Field(1, 28, columns - 28, ALPHANUMERICS))
+            columns == 44 -> {
+                val personalNumber = Field(1, 28, 14, ALPHANUMERICS)
+                val personalNumberCheck = Field(1, 42, 1, CHECK_DIGIT)
+                fields.add(personalNumber)
+                fields.add(personalNumberCheck)
+                fields.add(Field(1, 43, 1, CHECK_DIGIT))
+                checks.add(Check(listOf(personalNumber), 1, 42))
+                checks.add(Check(composite + personalNumber + personalNumberCheck, 1, 43))
+            }
+            else -> {
+                val optional = Field(1, 28, 7, ALPHANUMERICS)
+                fields.add(optional)
+                fields.add(Field(1, 35, 1, CHECK_DIGIT))
+                checks.add(Check(composite + optional, 1, 35))
+            }
+        }
+        return Layout(fields, checks, listOf(birthDate, expiryDate))
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.mrz
+
+import org.idpass.smartscanner.lib.scanner.config.MrzFormat
+
+/**
+ * ICAO 9303 machine readable zone layouts, told apart per frame by line count, line length and the
+ * document code, so that passports, ID cards and visas can be scanned in one session whatever
+ * [MrzFormat] the caller configured.
+ */
+enum class MRZLayout(val format: MrzFormat, val rows: Int, val columns: Int) {
+    TD1(MrzFormat.MRTD_TD1, 3, 30),
+    TD2(MrzFormat.MRTD_TD2, 2, 36),
+    TD3(MrzFormat.MRP, 2, 44),
+    MRV_A(MrzFormat.MRV_A, 2, 44),
+    MRV_B(MrzFormat.MRV_B, 2, 36);
+
+    /**
+     * Line cut or padded to [columns], or null when more fillers are missing than can be guessed.
+     */
+    fun fit(line: String): String? {
+        return when {
+            line.length >= columns -> line.substring(0, columns)
+            columns - line.length <= MAX_MISSING_FILLERS -> line.padEnd(columns, '<')
+            else -> null
+        }
+    }
+
+    companion object {
+        // lines missing at most this many trailing fillers are padded back
+        const val MAX_MISSING_FILLERS = 2
+        private const val TD1_DOCUMENT_CODES = "IAC"
+
+        /**
+         * Layout of an MRZ read with [rows] lines whose longest line has [longestLine] characters
+         * and which starts with [documentCode], or null if no layout fits.
+         */
+        fun detect(rows: Int, longestLine: Int, documentCode: Char): MRZLayout? {
+            val visa = documentCode == 'V'
+            return when {
+                // passports and visas never have three lines, the first one is text above the MRZ
+                rows == 3 -> if (documentCode in TD1_DOCUMENT_CODES && longestLine >= TD1.columns - MAX_MISSING_FILLERS) TD1 else null
+                rows != 2 -> null
+                // between both lengths a longer line is a TD3 read with missing characters
+                longestLine > (TD2.columns + TD3.columns) / 2 -> if (visa) MRV_A else TD3
+                longestLine >= TD2.columns - MAX_MISSING_FILLERS -> if (visa) MRV_B else TD2
+                else -> null
+            }
+        }
+
+        fun detect(lines: List<String>): MRZLayout? {
+            if (lines.isEmpty()) return null
+            return detect(lines.size, lines.maxOf { it.length }, lines[0].firstOrNull() ?: '<')
+        }
+
+        fun detect(mrz: String): MRZLayout? = detect(mrz.split('\n').filter { it.isNotEmpty() })
+    }
+}
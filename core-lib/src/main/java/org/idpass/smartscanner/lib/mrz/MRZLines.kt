@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.mrz
+
+import android.graphics.Rect
+import org.idpass.smartscanner.lib.scanner.RecognizedLine
+import kotlin.math.abs
+import kotlin.math.atan2
+import kotlin.math.cos
+import kotlin.math.hypot
+import kotlin.math.sin
+
+/**
+ * Rebuilds the MRZ lines of a recognition result from the geometry of its words instead of the
+ * line order of the engine: ML Kit splits MRZ lines over several blocks or orders them oddly on tilted
+ * documents. Engines that do not report words are rebuilt from their lines.
+ *
+ * Elements are rotated by their median skew, clustered by baseline and sorted from left to right.
+ * Of the rebuilt lines, the two or three neighbouring ones closest to an MRZ layout (same length and
+ * left edge, 30, 36 or 44 characters) are kept. Without such a group the lines containing a filler
+ * are returned, like before.
+ */
+object MRZLines {
+
+    // share of the element height two baselines may differ by and still be one line
+    private const val SAME_LINE = 0.6F
+    // gap between neighbouring MRZ lines, in element heights
+    private const val MAX_LINE_GAP = 2.5F
+    // characters a line may be off its layout width before the group is rejected
+    private const val MAX_LENGTH_ERROR = 4
+    private const val MIN_LINE_LENGTH = 20
+    private val WIDTHS = mapOf(3 to listOf(30), 2 to listOf(36, 44))
+
+    internal class Word(val text: String, val corners: FloatArray, val confidence: Float? = null) {
+        // top left, top right, bottom right, bottom left as x, y pairs
+        val angle get() = atan2(corners[3] - corners[1], corners[2] - corners[0])
+        val height get() = hypot(corners[6] - corners[0], corners[7] - corners[1])
+    }
+
+    private class Placed(val left: Float, val right: Float, val word: Word)
+
+    private class Line(first: Placed, var baseline: Float) {
+        val words = mutableListOf(first)
+        val text by lazy { words.sortedBy { it.left }.joinToString("") { it.word.text.filterNot(Char::isWhitespace) } }
+        val left get() = words.minOf { it.left }
+        val right get() = words.maxOf { it.right }
+        // mean of the word confidences, null when the engine gives none
+        val confidence: Float?
+            get() {
+                var sum = 0F
+                for (placed in words) sum += placed.word.confidence ?: return null
+                return sum / words.size
+            }
+    }
+
+    /**
+     * Raw MRZ text, one line per row, and the bounds of the MRZ lines in the recognizer input when
+     * they formed a layout. [confidences] holds the recognizer confidence of each row, null when the
+     * engine reports none (ML Kit).
+     */
+    class Read(val raw: String, val bounds: Rect?, val confidences: FloatArray? = null)
+
+    fun read(recognized: List<RecognizedLine>): Read {
+        val words = ArrayList<Word>()
+        for (line in recognized) {
+            for (word in line.words.ifEmpty { listOf(line) }) {
+                word.corners?.let { words.add(Word(word.text, it, word.confidence ?: line.confidence)) }
+            }
+        }
+        val lines = rebuild(words)
+        return Read(lines.texts.joinToString("") { it + "\n" }, lines.bounds, lines.confidences)
+    }
+
+    internal class Lines(val texts: List<String>, val bounds: Rect?, val confidences: FloatArray? = null)
+
+    internal fun rebuild(words: List<Word>): Lines {
+        if (words.isEmpty()) return Lines(emptyList(), null)
+        val angle = words.map { it.angle }.sorted()[words.size / 2]
+        val height = words.map { it.height }.sorted()[words.size / 2].coerceAtLeast(1F)
+        val cos = cos(angle)
+        val sin = sin(angle)
+
+        // Rotate the bottom edge of every element so that the lines are horizontal, then cluster by y
+        val placed = words.map { word ->
+            val c = word.corners
+            val y = (-(c[6] + c[4]) * sin + (c[7] + c[5]) * cos) / 2
+            y to Placed(c[6] * cos + c[7] * sin, c[4] * cos + c[5] * sin, word)
+        }.sortedBy { it.first }
+        val lines = ArrayList<Line>()
+        for ((y, word) in placed) {
+            val line = lines.lastOrNull()
+            if (line != null && abs(y - line.baseline) <= height * SAME_LINE) {
+                line.words.add(word)
+                line.baseline += (y - line.baseline) / line.words.size
+            } else {
+                lines.add(Line(word, y))
+            }
+        }
+
+        val group = bestGroup(lines, height)
+        if (group == null) {
+            val withFiller = lines.filter { it.text.contains('<') }
+            return Lines(withFiller.map { it.text }, null, confidencesOf(withFiller))
+        }
+        return Lines(group.map { it.text }, boundsOf(group), confidencesOf(group))
+    }
+
+    private fun confidencesOf(group: List<Line>): FloatArray? {
+        val confidences = FloatArray(group.size)
+        for (i in group.indices) confidences[i] = group[i].confidence ?: return null
+        return confidences
+    }
+
+    private fun boundsOf(group: List<Line>): Rect {
+        val corners = group.flatMap { line -> line.words.map { it.word.corners } }
+        return Rect(
+            corners.minOf { c -> minOf(c[0], c[6]) }.toInt(),
+            corners.minOf { c -> minOf(c[1], c[3]) }.toInt(),
+            corners.maxOf { c -> maxOf(c[2], c[4]) }.toInt(),
+            corners.maxOf { c -> maxOf(c[5], c[7]) }.toInt()
+        )
+    }
+
+    private fun bestGroup(lines: List<Line>, height: Float): List<Line>? {
+        var best: List<Line>? = null
+        var bestScore = Float.MAX_VALUE
+        for ((rows, widths) in WIDTHS) {
+            for (first in 0..lines.size - rows) {
+                val group = lines.subList(first, first + rows)
+                if (group.none { it.text.contains('<') }) continue
+                if (group.any { it.text.length < MIN_LINE_LENGTH }) continue
+                if ((1 until rows).any { group[it].baseline - group[it - 1].baseline > height * MAX_LINE_GAP }) continue
+                // MRZ lines start at the same x and, in OCR-B, have the same pitch
+                val leftError = (group.maxOf { it.left } - group.minOf { it.left }) / height
+                val pitches = group.map { (it.right - it.left) / it.text.length }
+                val pitchError = (pitches.maxOrNull()!! - pitches.minOrNull()!!) / pitches.average().toFloat()
+                for (width in widths) {
+                    val lengthError = group.sumOf { abs(it.text.length - width) }
+                    if (lengthError > MAX_LENGTH_ERROR * rows) continue
+                    val score = lengthError.toFloat() / rows + leftError + pitchError * 10
+                    if (score < bestScore) {
+                        bestScore = score
+                        best = group
+                    }
+                }
+            }
+        }
+        return best
+    }
+}
@@ -39,6 +39,7 @@ import org.idpass.smartscanner.lib.nfc.details.IntentData
 import org.idpass.smartscanner.lib.nfc.passport.Passport
 import org.idpass.smartscanner.lib.nfc.passport.PassportDetailsFragment
 import org.idpass.smartscanner.lib.nfc.passport.PassportPhotoFragment
+import org.idpass.smartscanner.lib.scanner.ResultFileTransport
 import org.idpass.smartscanner.lib.scanner.config.Modes
 import org.jmrtd.lds.icao.MRZInfo
 
@@ -219,6 +220,7 @@ class NFCActivity : FragmentActivity(), NFCFragment.NfcFragmentListener, Passpor
             for (key in bundle.keySet()) {
                 result.putExtra(prefix + key, bundle.getString(key))
             }
+            ResultFileTransport.apply(this, intent, result)
             setResult(Activity.RESULT_OK, result)
             finish()
         } else {
@@ -230,6 +232,7 @@ class NFCActivity : FragmentActivity(), NFCFragment.NfcFragmentListener, Passpor
                 Log.d(TAG, "Success from NFC -- RESULT")
                 Log.d(TAG, "value: $nfcResult")
                 data.putExtra(SmartScannerActivity.SCANNER_RESULT, Gson().toJson(nfcResult))
+                ResultFileTransport.apply(this, intent, data)
                 setResult(Activity.RESULT_OK, data)
                 finish()
             }
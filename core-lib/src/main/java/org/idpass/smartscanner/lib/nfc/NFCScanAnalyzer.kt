@@ -19,7 +19,6 @@ package org.idpass.smartscanner.lib.nfc
 
 import android.app.Activity
 import android.content.Intent
-import android.graphics.Bitmap
 import android.util.Log
 import org.idpass.smartscanner.api.ScannerConstants
 import org.idpass.smartscanner.lib.SmartScannerActivity
@@ -28,13 +27,12 @@ import org.idpass.smartscanner.lib.mrz.MRZCleaner
 import org.idpass.smartscanner.lib.mrz.MRZResult
 import org.idpass.smartscanner.lib.nfc.NFCActivity.Companion.FOR_SMARTSCANNER_APP
 import org.idpass.smartscanner.lib.nfc.details.IntentData
-import org.idpass.smartscanner.lib.scanner.config.ImageResultType
+import org.idpass.smartscanner.lib.scanner.AnalyzerType
+import org.idpass.smartscanner.lib.scanner.ResultFileTransport
+import org.idpass.smartscanner.lib.scanner.ScannerFrame
+import org.idpass.smartscanner.lib.scanner.config.EnhanceOptions
 import org.idpass.smartscanner.lib.scanner.config.Modes
-import org.idpass.smartscanner.lib.utils.extension.cacheImagePath
-import org.idpass.smartscanner.lib.utils.extension.cacheImageToLocal
-import org.idpass.smartscanner.lib.utils.extension.cropCenter
-import org.idpass.smartscanner.lib.utils.extension.encodeBase64
-import java.io.File
+import org.idpass.smartscanner.mrz.parser.innovatrics.records.MrtdTd1
 
 open class NFCScanAnalyzer(
     override val activity: Activity,
@@ -48,14 +46,19 @@ open class NFCScanAnalyzer(
     private val captureLog: Boolean,
     private val enableLogging: Boolean,
     private val imageResultType: String,
-    isMLKit: Boolean,
+    engineType: AnalyzerType,
     format: String? = null,
     analyzeStart: Long,
-    isShowGuide: Boolean? = false
-) : MRZAnalyzer(activity, intent, mode, label, language, locale, withMrzPhoto, withPhoto, captureLog, enableLogging, isMLKit, imageResultType, format, analyzeStart, isShowGuide) {
+    isShowGuide: Boolean? = false,
+    enhanceOptions: EnhanceOptions? = null,
+    locateMrz: Boolean = false
+) : MRZAnalyzer(activity, intent, mode, label, language, locale, withMrzPhoto, withPhoto, captureLog, enableLogging, engineType, imageResultType, format, analyzeStart, isShowGuide, enhanceOptions, locateMrz) {
 
-    override fun processResult(result: String, bitmap: Bitmap, rotation: Int) {
-        val mrzResult =  MRZResult.formatMrzResult(MRZCleaner.parseAndClean(result))
+    override fun processResult(result: String, frame: ScannerFrame) {
+        startResult()
+        // Same parsing as the MRZ scan, so TD1 cards and corrected reads reach the chip reader too
+        val record = MRZCleaner.parse(result, preferMrtdTd1)
+        val mrzResult = if (record is MrtdTd1) MRZResult.formatMrtdTd1Result(record, null) else MRZResult.formatMrzResult(record)
         mrzResult.mrz?.let { mrzString ->
             Log.d(SmartScannerActivity.TAG, "Success from NFC -- SCAN")
             val nfcIntent = Intent(activity, NFCActivity::class.java)
@@ -65,13 +68,7 @@ open class NFCScanAnalyzer(
                 intent.action == ScannerConstants.IDPASS_SMARTSCANNER_ODK_NFC_INTENT -> nfcIntent.putExtra(ScannerConstants.NFC_ACTION, intent.action)
             }
             if (withMrzPhoto) {
-                val imagePath = activity.cacheImagePath()
-                bitmap.cropCenter().cacheImageToLocal(imagePath,
-                    rotation,
-                    if (imageResultType == ImageResultType.BASE_64.value) 40 else 80
-                )
-                val imageFile = File(imagePath)
-                val imageString = if (imageResultType == ImageResultType.BASE_64.value) imageFile.encodeBase64() else imagePath
+                val imageString = encodeResultImage(resultImage, frame).image
                 nfcIntent.putExtra(IntentData.KEY_MRZ_PHOTO, imageString)
             }
             nfcIntent.putExtra(ScannerConstants.NFC_MRZ_STRING, mrzString)
@@ -81,9 +78,10 @@ open class NFCScanAnalyzer(
             nfcIntent.putExtra(IntentData.KEY_WITH_PHOTO, withPhoto)
             nfcIntent.putExtra(IntentData.KEY_CAPTURE_LOG, captureLog)
             nfcIntent.putExtra(IntentData.KEY_ENABLE_LOGGGING, enableLogging)
+            nfcIntent.putExtra(SmartScannerActivity.SCANNER_RESULT_FILE, ResultFileTransport.isRequested(intent))
             nfcIntent.addFlags(Intent.FLAG_ACTIVITY_FORWARD_RESULT)
             activity.startActivity(nfcIntent)
-            activity.finish()
+            finishWithResult()
         }
     }
 }
\ No newline at end of file
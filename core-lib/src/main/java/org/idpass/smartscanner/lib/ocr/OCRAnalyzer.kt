@@ -2,34 +2,34 @@ package org.idpass.smartscanner.lib.ocr
 
 import android.annotation.SuppressLint
 import android.app.Activity
+import android.content.Context
 import android.content.Intent
-import android.graphics.Bitmap
+import android.graphics.Rect
+import android.os.Build
 import android.os.Bundle
 import android.os.Handler
 import android.os.Looper
 import android.util.Log
-import android.view.View
-import android.widget.ImageView
-import androidx.camera.core.ImageProxy
 import com.google.gson.Gson
-import com.google.mlkit.vision.common.InputImage
-import com.google.mlkit.vision.text.TextRecognition
-import com.google.mlkit.vision.text.latin.TextRecognizerOptions
 import org.idpass.smartscanner.api.ScannerConstants
-import org.idpass.smartscanner.lib.R
 import org.idpass.smartscanner.lib.SmartScannerActivity
+import org.idpass.smartscanner.lib.scanner.AnalyzerType
 import org.idpass.smartscanner.lib.scanner.BaseImageAnalyzer
-import org.idpass.smartscanner.lib.scanner.config.ImageResultType
+import org.idpass.smartscanner.lib.scanner.EngineCalibration
+import org.idpass.smartscanner.lib.scanner.FrameMetrics
+import org.idpass.smartscanner.lib.scanner.GuideRoi
+import org.idpass.smartscanner.lib.scanner.LumaImage
+import org.idpass.smartscanner.lib.scanner.RecognizedLine
+import org.idpass.smartscanner.lib.scanner.RecognizerEngines
+import org.idpass.smartscanner.lib.scanner.RegionTracker
+import org.idpass.smartscanner.lib.scanner.ResultImageEncoder
+import org.idpass.smartscanner.lib.scanner.ScanGeometry
+import org.idpass.smartscanner.lib.scanner.ScannerFrame
+import org.idpass.smartscanner.lib.scanner.config.EnhanceOptions
 import org.idpass.smartscanner.lib.scanner.config.Modes
-import org.idpass.smartscanner.lib.utils.BitmapUtils
-import org.idpass.smartscanner.lib.utils.extension.cacheImagePath
-import org.idpass.smartscanner.lib.utils.extension.cacheImageToLocal
-import org.idpass.smartscanner.lib.utils.extension.cropCenter
-import org.idpass.smartscanner.lib.utils.extension.encodeBase64
-import org.idpass.smartscanner.lib.utils.extension.isImageBlur
-import org.idpass.smartscanner.lib.utils.extension.setBrightness
-import org.idpass.smartscanner.lib.utils.extension.setContrast
-import java.io.File
+import org.idpass.smartscanner.lib.session.ScannerSession
+import org.idpass.smartscanner.lib.utils.FocusMeter
+import org.idpass.smartscanner.lib.utils.LumaEnhancer
 
 open class OCRAnalyzer(
     override val activity: Activity,
@@ -40,167 +40,142 @@ open class OCRAnalyzer(
     private val regex: String? = "",
     private val type: String? = "",
     private val manualCapture: Boolean = false,
-    private val analyzeStart: Long = 0
+    private val analyzeStart: Long = 0,
+    enhanceOptions: EnhanceOptions? = null,
+    private val focusThreshold: Double = FocusMeter.DEFAULT_THRESHOLD,
+    private val engineType: AnalyzerType = AnalyzerType.MLKIT
 ) : BaseImageAnalyzer() {
 
+    companion object {
+        /**
+         * Calibration of the text engines on the recorded OCR frames, expected to read the value returned.
+         */
+        fun calibration(context: Context) = EngineCalibration.Task(
+            mode = Modes.OCR.value,
+            candidates = RecognizerEngines.TEXT,
+            create = { type -> RecognizerEngines.text(context, type) },
+            matches = { expected, lines -> lines.joinToString(" ") { it.text }.contains(expected) }
+        )
+    }
+
+    private val enhancer = LumaEnhancer.from(enhanceOptions)
+    // imagePath is the cached file in every mode, Base64 results included
+    private val resultImage = ResultImageEncoder(activity, imageResultType, keepFile = true)
+    private val engineDelegate = lazy { ScannerSession.engine("ocr/$engineType") { RecognizerEngines.text(activity, engineType) } }
+    private val engine by engineDelegate
+    private val focusMeter = FocusMeter()
+
+    /**
+     * Focus score of the last frame that produced text, logged along with the device model for calibration.
+     */
+    @Volatile
+    var lastFocusScore = 0.0
+        private set
+    private val guide = GuideRoi(ScanGeometry::ocrRoi)
+    private val tracker = RegionTracker()
+
+    @Volatile
     private var captured = false
+    @Volatile
     private var startAnalyze = false
+    private var startScheduled = false
+
+    /**
+     * Manual capture: the next recognized frame is returned as the result. Called from the main thread.
+     */
+    fun capture() {
+        captured = true
+        recognizeNextFrame()
+    }
 
-    @SuppressLint("UnsafeExperimentalUsageError", "UnsafeOptInUsageError")
-    override fun analyze(imageProxy: ImageProxy) {
-        captured = !manualCapture
-        Handler(Looper.getMainLooper()).postDelayed({
-            startAnalyze = true
-        }, analyzeStart)
-        val bitmap = BitmapUtils.getBitmap(imageProxy)
-        bitmap?.let { bf ->
-            val rotation = imageProxy.imageInfo.rotationDegrees
-            bf.apply {
-                // Increase brightness and contrast for clearer image to be processed
-                setContrast(1.1F)
-                setBrightness(3F)
-            }
-
-            val rectGuide = activity.findViewById<ImageView>(R.id.scanner_overlay)
-            val xGuide = activity.findViewById<View>(R.id.x_guide)
-            val yGuide = activity.findViewById<View>(R.id.y_guide)
-            val viewFinder = activity.findViewById<View>(R.id.view_finder)
-            val capture = activity.findViewById<View>(R.id.manual_capture)
-            var inputBitmap = bf
-            var inputRot = rotation
-            var rotatedBF = BitmapUtils.rotateImage(bf, rotation)
-
-            capture.setOnClickListener {
-                captured = true
-            }
-
-            if (isShowGuide) {
-                // try to cropped forcefully
-
-                // Crop preview area
-                val cropHeight = if (rotatedBF.width < viewFinder.width) {
-                    // if preview area larger than analysing image
-                    val koeff = rotatedBF.width.toFloat() / viewFinder!!.width.toFloat()
-                    viewFinder.height.toFloat() * koeff
-                } else {
-                    // if preview area smaller than analysing image
-                    val prc =
-                        100 - (viewFinder.width.toFloat() / (rotatedBF.width.toFloat() / 100f))
-                    viewFinder.height + ((viewFinder.height.toFloat() / 100f) * prc)
-                }
-                val cropTop = (rotatedBF.height / 2) - (cropHeight / 2)
-                rotatedBF = Bitmap.createBitmap(
-                    rotatedBF,
-                    0,
-                    cropTop.toInt(),
-                    rotatedBF.width,
-                    cropHeight.toInt()
-                )
-
-                // Crop OCR area
-                val ratio = rotatedBF.width.toFloat() / viewFinder.width.toFloat()
-                val width = rectGuide.width * ratio
-                val height = rectGuide.height * ratio
-                var x = (xGuide.width) * ratio
-                var y = (yGuide.height) * ratio
+    override fun close() {
+        if (engineDelegate.isInitialized()) engine.close()
+    }
 
-                if (x + width > rotatedBF.width) {
-                    val diff = x + width - rotatedBF.width
-                    x -= diff
-                }
+    @SuppressLint("UnsafeExperimentalUsageError", "UnsafeOptInUsageError")
+    override fun prepare(frame: ScannerFrame): LumaImage? {
+        if (!startScheduled) {
+            startScheduled = true
+            Handler(Looper.getMainLooper()).postDelayed({
+                startAnalyze = true
+            }, analyzeStart)
+        }
+        // Only the guide area of the Y plane is copied when shown, the engine takes care of the rotation
+        // Once matching text has been seen, the next frames only look around it
+        frame.roi = tracker.roi(frame.width, frame.height) ?: if (isShowGuide) guide.of(geometry, frame) else null
+        if (!passesQualityGate(frame, frame.roi)) return null
+        return frame.toLumaImage(enhancer, frame.roi)
+    }
 
-                if (y + height > rotatedBF.height) {
-                    val diff = y + height - rotatedBF.height
-                    y -= diff
-                }
+    override fun recognize(frame: ScannerFrame, image: LumaImage) {
+        Log.d("${SmartScannerActivity.TAG}/SmartScanner", "OCR ${engine.type}: process")
+        val start = System.currentTimeMillis()
+        val lines = try {
+            FrameMetrics.measure(RecognizerEngines.metric(engine.type)) { engine.recognize(image) }
+        } catch (e: Exception) {
+            Log.e("${SmartScannerActivity.TAG}/SmartScanner", "OCR ${engine.type}: recognition failed", e)
+            null
+        }
+        Log.d("${SmartScannerActivity.TAG}/SmartScanner", "OCR ${engine.type}: ${System.currentTimeMillis() - start} ms")
+        // The focus is measured here, off the main thread, and only for frames with matching text
+        val sharp = !manualCapture && lines != null && lines.any { OCRChecker.check(it.text, regex) } &&
+                isSharp(frame, frame.roi)
+        // Results are handled on the main thread, like the ML Kit listeners always did
+        activity.runOnUiThread {
+            if (lines != null) handleLines(frame, lines, sharp)
+            frame.close()
+        }
+    }
 
-                inputBitmap = Bitmap.createBitmap(
-                    rotatedBF,
-                    x.toInt(),
-                    y.toInt(),
-                    width.toInt(),
-                    height.toInt()
-                )
-                inputRot = 0
+    private fun handleLines(frame: ScannerFrame, lines: List<RecognizedLine>, sharp: Boolean) {
+        var value = ""
+        var array = ArrayList<String>()
+        var matched: Rect? = null
+
+        for (line in lines) {
+            //check if text matches the given regex
+            if (OCRChecker.check(line.text, regex)) {
+                value += if (value.isNotEmpty()) " " + line.text else line.text
+                array.add(line.text)
+                line.box?.let { box -> matched = matched?.apply { union(box) } ?: Rect(box) }
             }
-
-            // Pass image to an ML Kit Vision API
-            Log.d("${SmartScannerActivity.TAG}/SmartScanner", "OCR MLKit: start")
-            val start = System.currentTimeMillis()
-            val image = InputImage.fromBitmap(inputBitmap, inputRot)
-            val recognizer = TextRecognition.getClient(TextRecognizerOptions.DEFAULT_OPTIONS)
-            Log.d("${SmartScannerActivity.TAG}/SmartScanner", "OCR MLKit TextRecognition: process")
-
-            recognizer.process(image)
-
-                .addOnSuccessListener { visionText ->
-
-                    val timeRequired = System.currentTimeMillis() - start
-                    Log.d(
-                        "${SmartScannerActivity.TAG}/SmartScanner",
-                        "OCR MLKit TextRecognition: success: $timeRequired ms"
-                    )
-                    var value = ""
-                    var array = ArrayList<String>()
-                    val blocks = visionText.textBlocks
-
-                    for (i in blocks.indices) {
-                        val lines = blocks[i].lines
-                        for (j in lines.indices) {
-                            //check if text matches the given regex
-                            if (OCRChecker.check(lines[j].text, regex)) {
-                                value += if (value.isNotEmpty()) " " + lines[j].text else lines[j].text
-                                array.add(lines[j].text)
-                            }
-                        }
-                    }
-                    if (manualCapture) {
-                        if (captured) processResult(
-                            result = value,
-                            array = array,
-                            bitmap = bf,
-                            rotation = rotation
-                        )
-                    } else if (value.isNotEmpty() && !inputBitmap.isImageBlur(50.0) && startAnalyze) {
-                        processResult(
-                            result = value,
-                            array = array,
-                            bitmap = bf,
-                            rotation = rotation
-                        )
-                    } else {
-                        Log.d(
-                            "${SmartScannerActivity.TAG}/SmartScanner",
-                            "OCR: nothing detected"
-                        )
-                    }
-
-                    imageProxy.close()
-                }
-                .addOnFailureListener { e ->
-                    e.printStackTrace()
-                    imageProxy.close()
-                }
-
-
+        }
+        val bounds = matched?.let { frame.toSensor(it) }
+        if (bounds != null) tracker.hit(bounds) else tracker.miss()
+        if (manualCapture) {
+            if (captured) processResult(
+                result = value,
+                array = array,
+                frame = frame
+            )
+        } else if (value.isNotEmpty() && sharp && startAnalyze) {
+            frameRecorder?.record(frame, value)
+            processResult(
+                result = value,
+                array = array,
+                frame = frame
+            )
+        } else {
+            Log.d(
+                "${SmartScannerActivity.TAG}/SmartScanner",
+                "OCR: nothing detected"
+            )
         }
     }
 
-    internal open fun processResult(result: String, array: ArrayList<String>, bitmap: Bitmap, rotation: Int) {
-        val imagePath = activity.cacheImagePath()
-        bitmap.cropCenter().cacheImageToLocal(
-            imagePath,
-            rotation,
-            if (imageResultType == ImageResultType.BASE_64.value) 40 else 80
-        )
-        val imageFile = File(imagePath)
-        val imageString =
-            if (imageResultType == ImageResultType.BASE_64.value) imageFile.encodeBase64() else imagePath
-
+    private fun isSharp(frame: ScannerFrame, roi: Rect?): Boolean {
+        val score = frame.focusScore(focusMeter, roi)
+        lastFocusScore = score
+        Log.d("${SmartScannerActivity.TAG}/SmartScanner", "OCR focus score: $score (${Build.MODEL}, threshold $focusThreshold)")
+        return score >= focusThreshold
+    }
 
+    internal open fun processResult(result: String, array: ArrayList<String>, frame: ScannerFrame) {
+        startResult()
+        val encoded = encodeResultImage(resultImage, frame)
         val result = OCRResult(
-            imagePath = imagePath,
-            image = imageString,
+            imagePath = encoded.path,
+            image = encoded.image,
             regex = regex ?: OCRChecker.DEFAULT_REGEX_STRING,
             valuesArray = array,
             value = result,
@@ -227,8 +202,7 @@ open class OCRAnalyzer(
         data.putExtra(SmartScannerActivity.SCANNER_IMAGE_TYPE, imageResultType)
         data.putExtra(SmartScannerActivity.SCANNER_RESULT, result)
         data.putExtra(ScannerConstants.MODE, mode)
-        activity.setResult(Activity.RESULT_OK, data)
-        activity.finish()
+        finishWithResult(data)
     }
 
     private fun sendBundleResult(ocrResult: OCRResult? = null) {
@@ -255,7 +229,6 @@ open class OCRAnalyzer(
         for (key in bundle.keySet()) {
             result.putExtra(prefix + key, bundle.getString(key))
         }
-        activity.setResult(Activity.RESULT_OK, result)
-        activity.finish()
+        finishWithResult(result)
     }
 }
\ No newline at end of file
@@ -22,4 +22,5 @@ enum class AnalyzerType {
     IDPASS_LITE,
     MLKIT,
     TESSERACT,
+    ZXING,
 }
\ No newline at end of file
@@ -19,10 +19,153 @@ package org.idpass.smartscanner.lib.scanner
 
 import android.app.Activity
 import android.content.Intent
+import android.graphics.Rect
 import androidx.camera.core.ImageAnalysis
+import androidx.camera.core.ImageProxy
+import org.idpass.smartscanner.lib.scanner.config.ImageOptions
+import java.io.Closeable
 
-abstract class BaseImageAnalyzer : ImageAnalysis.Analyzer {
+/**
+ * Base of the camera analyzers. Every frame goes through two steps: [prepare] (quality gate, region
+ * of interest, the [LumaImage] handed to the [RecognizerEngine]) and [recognize]. They run back to back on the camera thread by
+ * default, or on two threads when the analyzer is wrapped in a [FramePipeline].
+ */
+abstract class BaseImageAnalyzer : ImageAnalysis.Analyzer, Closeable {
     abstract val activity : Activity
     abstract val intent: Intent
     abstract val mode : String
+
+    companion object {
+        const val METRIC_FPS = "fps/serial"
+        const val METRIC_RESULT = "result/finish"
+    }
+
+    private var resultStart = 0L
+
+    /**
+     * Latest overlay layout, published from the main thread. Null until the views have been laid out.
+     */
+    @Volatile
+    var geometry: ScanGeometry? = null
+
+    /**
+     * Quality gate run before recognition, null to hand every frame to the recognizer.
+     */
+    var qualityGate: FrameQualityGate? = null
+
+    /**
+     * Receives every verdict of the [qualityGate] with its measurements, on the analyzer thread.
+     */
+    var onQualityVerdict: ((FrameQualityGate.Verdict, String) -> Unit)? = null
+
+    /**
+     * Keeps the successfully scanned frames for an [EngineCalibration], null to keep none.
+     */
+    var frameRecorder: FrameRecorder? = null
+
+    /**
+     * Returns path results before their image is written, see [ResultImageWriter].
+     */
+    var asyncResultImage = false
+
+    /**
+     * Format, size and quality of the result image, null for the defaults of the mode.
+     */
+    var imageOptions: ImageOptions? = null
+
+    private var lastResultImage: ResultImageEncoder.Encoded? = null
+
+    /**
+     * Skips frames that barely differ from the last recognized one, null to recognize every frame.
+     */
+    var frameSimilarity: FrameSimilarity? = null
+
+    /**
+     * Whether [frame] is a near duplicate of the last recognized frame and can be dropped before
+     * [prepare]. Skipped frames are counted in [FrameMetrics].
+     */
+    fun isDuplicate(frame: ScannerFrame): Boolean {
+        val similarity = frameSimilarity ?: return false
+        val duplicate = FrameMetrics.measure(FrameSimilarity.METRIC_SIMILARITY) { similarity.isDuplicate(frame) }
+        if (duplicate) FrameMetrics.increment(FrameSimilarity.METRIC_SKIPPED)
+        return duplicate
+    }
+
+    /**
+     * The camera changed (torch, focus) or a result is expected: the next frame is recognized
+     * even if it looks like the last one.
+     */
+    fun recognizeNextFrame() {
+        frameSimilarity?.invalidate()
+    }
+
+    /**
+     * Runs the [qualityGate] on the frame, or on [roi] (sensor coordinates) when given. Dropped frames
+     * are counted per reason in [FrameMetrics].
+     */
+    protected fun passesQualityGate(frame: ScannerFrame, roi: Rect? = null): Boolean {
+        val gate = qualityGate ?: return true
+        val verdict = FrameMetrics.measure(FrameQualityGate.METRIC_GATE) { gate.check(frame, roi) }
+        if (verdict != FrameQualityGate.Verdict.PASS) {
+            FrameMetrics.increment("gate/dropped/${verdict.name}")
+        }
+        onQualityVerdict?.invoke(verdict, gate.summary)
+        return verdict == FrameQualityGate.Verdict.PASS
+    }
+
+    /**
+     * Marks a successful recognition: [finishWithResult] records the time it took to hand the result
+     * back from here, result image included.
+     */
+    protected fun startResult() {
+        resultStart = System.nanoTime()
+    }
+
+    /**
+     * Encodes the result image of [frame] with the session's [imageOptions]. Its size and encoding time
+     * are reported with the result of [finishWithResult].
+     */
+    protected fun encodeResultImage(encoder: ResultImageEncoder, frame: ScannerFrame): ResultImageEncoder.Encoded {
+        return encoder.encode(frame, imageOptions, asyncResultImage).also { lastResultImage = it }
+    }
+
+    /**
+     * Returns [data], if any, to the caller and finishes the activity.
+     */
+    protected fun finishWithResult(data: Intent? = null) {
+        data?.let {
+            lastResultImage?.putInto(it)
+            ResultFileTransport.apply(activity, intent, it)
+            activity.setResult(Activity.RESULT_OK, it)
+        }
+        if (resultStart != 0L) FrameMetrics.record(METRIC_RESULT, System.nanoTime() - resultStart)
+        activity.finish()
+    }
+
+    override fun analyze(imageProxy: ImageProxy) {
+        val frame = ScannerFrame(imageProxy)
+        val image = if (isDuplicate(frame)) null else prepare(frame)
+        if (image == null) {
+            frame.close()
+            return
+        }
+        frame.onClosed = { FrameMetrics.tick(METRIC_FPS) }
+        recognize(frame, image)
+    }
+
+    /**
+     * Checks the frame and copies the luma of its region of interest for the engine, see
+     * [ScannerFrame.toLumaImage], or returns null to drop the frame. Must not close the frame.
+     */
+    abstract fun prepare(frame: ScannerFrame): LumaImage?
+
+    /**
+     * Runs the engine on [image] and closes [frame] once its result has been handled.
+     */
+    abstract fun recognize(frame: ScannerFrame, image: LumaImage)
+
+    /**
+     * Releases the recognizer clients of the session. Called once the camera no longer delivers frames.
+     */
+    override fun close() {}
 }
\ No newline at end of file
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.scanner
+
+import android.content.Context
+import android.os.Build
+import android.util.Log
+import org.idpass.smartscanner.lib.SmartScannerActivity
+import org.idpass.smartscanner.lib.scanner.config.Config
+
+/**
+ * Measures the candidate engines of a mode on the frames recorded by [FrameRecorder] and keeps the
+ * fastest accurate one for this device model, which [RecognizerEngines.select] then uses for
+ * [RecognizerEngines.FASTEST].
+ *
+ * Every candidate recognizes every recorded frame. Accuracy is the share of frames whose expected value
+ * [Task.matches] the engine output, speed the median recognition time. Of the engines within
+ * [ACCURACY_TOLERANCE] of the most accurate one, the fastest wins. [run] blocks, call it off the main thread.
+ */
+class EngineCalibration(private val context: Context) {
+
+    companion object {
+        const val MIN_FRAMES = 5
+        const val ACCURACY_TOLERANCE = 0.95
+
+        private fun key(mode: String) = "engine/${Build.MODEL}/$mode"
+
+        /**
+         * Engine picked by the last calibration of [mode] on this device model, null if none ran.
+         */
+        fun fastest(context: Context, mode: String): AnalyzerType? {
+            val preference = context.getSharedPreferences(Config.SHARED, Context.MODE_PRIVATE)
+            val name = preference.getString(key(mode), null) ?: return null
+            return AnalyzerType.values().firstOrNull { it.name == name }
+        }
+    }
+
+    /**
+     * What to calibrate: the [candidates] of [mode], how to [create] each of them and whether its output
+     * [matches] the value expected from a frame.
+     */
+    class Task(
+        val mode: String,
+        val candidates: List<AnalyzerType>,
+        val create: (AnalyzerType) -> RecognizerEngine,
+        val matches: (String, List<RecognizedLine>) -> Boolean
+    )
+
+    class Score(val type: AnalyzerType, val frames: Int, val correct: Int, val medianMillis: Double) {
+        val accuracy get() = if (frames == 0) 0.0 else correct.toDouble() / frames
+
+        override fun toString() = "$type: $correct/$frames correct, ${"%.1f".format(medianMillis)} ms median"
+    }
+
+    /**
+     * Scores the available candidates of [task] and stores the pick, if any engine read a frame, then
+     * deletes the recorded frames. Nothing happens with fewer than [MIN_FRAMES] recorded frames.
+     */
+    fun run(task: Task): List<Score> {
+        val frames = FrameRecorder.load(context, task.mode)
+        if (frames.size < MIN_FRAMES) {
+            Log.d("${SmartScannerActivity.TAG}/SmartScanner", "Calibration ${task.mode}: ${frames.size} recorded frames, $MIN_FRAMES needed")
+            return emptyList()
+        }
+        val scores = try {
+            score(task, frames)
+        } finally {
+            // the frames were only kept for this run
+            FrameRecorder.clear(context, task.mode)
+        }
+        scores.forEach { Log.d("${SmartScannerActivity.TAG}/SmartScanner", "Calibration ${task.mode} on ${Build.MODEL}: $it") }
+        val best = scores.maxOfOrNull { it.accuracy } ?: 0.0
+        if (best == 0.0) return scores
+        scores.filter { it.accuracy >= best * ACCURACY_TOLERANCE }.minByOrNull { it.medianMillis }?.let { fastest ->
+            context.getSharedPreferences(Config.SHARED, Context.MODE_PRIVATE).edit()
+                .putString(key(task.mode), fastest.type.name)
+                .apply()
+        }
+        return scores
+    }
+
+    private fun score(task: Task, frames: List<FrameRecorder.Recorded>): List<Score> {
+        return task.candidates.filter { RecognizerEngines.isAvailable(context, it) }.map { type ->
+            task.create(type).use { engine ->
+                var correct = 0
+                val times = frames.map { frame ->
+                    val start = System.nanoTime()
+                    val lines = try {
+                        engine.recognize(frame.image)
+                    } catch (e: Exception) {
+                        Log.d("${SmartScannerActivity.TAG}/SmartScanner", "Calibration $type: $e")
+                        emptyList()
+                    }
+                    val elapsed = System.nanoTime() - start
+                    if (task.matches(frame.expected, lines)) correct++
+                    elapsed
+                }.sorted()
+                Score(type, frames.size, correct, times[times.size / 2] / 1e6)
+            }
+        }
+    }
+}
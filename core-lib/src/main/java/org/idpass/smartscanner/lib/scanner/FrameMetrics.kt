@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.scanner
+
+import android.util.Log
+import org.idpass.smartscanner.lib.SmartScannerActivity
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Lightweight per-frame timing and event metrics for the analyzers.
+ *
+ * Samples are aggregated per metric name and the running average is logged every
+ * [WINDOW] samples, so a device log can be used to compare frame paths side by side.
+ */
+object FrameMetrics {
+
+    private const val WINDOW = 30
+    private const val RATE_WINDOW_NANOS = 2_000_000_000L
+
+    private val timings = ConcurrentHashMap<String, Timing>()
+    private val counters = ConcurrentHashMap<String, AtomicLong>()
+    private val rates = ConcurrentHashMap<String, Rate>()
+
+    private class Timing {
+        var count = 0
+        var totalNanos = 0L
+        var windowNanos = 0L
+    }
+
+    private class Rate {
+        var windowStart = 0L
+        var frames = 0
+        var fps = 0.0
+    }
+
+    fun record(name: String, nanos: Long) {
+        val timing = timings.getOrPut(name) { Timing() }
+        synchronized(timing) {
+            timing.count++
+            timing.totalNanos += nanos
+            timing.windowNanos += nanos
+            if (timing.count % WINDOW == 0) {
+                Log.d(
+                    "${SmartScannerActivity.TAG}/SmartScanner",
+                    "Metrics $name: ${"%.2f".format(timing.windowNanos / WINDOW / 1e6)} ms avg over last $WINDOW frames"
+                )
+                timing.windowNanos = 0L
+            }
+        }
+    }
+
+    inline fun <T> measure(name: String, block: () -> T): T {
+        val start = System.nanoTime()
+        try {
+            return block()
+        } finally {
+            record(name, System.nanoTime() - start)
+        }
+    }
+
+    /**
+     * Average duration in milliseconds of everything recorded under [name], or null if nothing was recorded.
+     */
+    fun averageMillis(name: String): Double? {
+        val timing = timings[name] ?: return null
+        synchronized(timing) {
+            return if (timing.count == 0) null else timing.totalNanos / timing.count / 1e6
+        }
+    }
+
+    /**
+     * Counts one occurrence of an event such as a dropped frame, logging the total every [WINDOW] events
+     * unless [logged] is false, e.g. for events that happen several times per frame.
+     */
+    fun increment(name: String, logged: Boolean = true) {
+        val total = counters.getOrPut(name) { AtomicLong() }.incrementAndGet()
+        if (logged && total % WINDOW == 0L) {
+            Log.d("${SmartScannerActivity.TAG}/SmartScanner", "Metrics $name: $total frames")
+        }
+    }
+
+    fun count(name: String): Long = counters[name]?.get() ?: 0L
+
+    /**
+     * Counts one fully processed frame under [name], the rate is logged every two seconds.
+     */
+    fun tick(name: String) {
+        val rate = rates.getOrPut(name) { Rate() }
+        synchronized(rate) {
+            val now = System.nanoTime()
+            if (rate.windowStart == 0L) rate.windowStart = now
+            rate.frames++
+            val elapsed = now - rate.windowStart
+            if (elapsed >= RATE_WINDOW_NANOS) {
+                rate.fps = rate.frames * 1e9 / elapsed
+                Log.d("${SmartScannerActivity.TAG}/SmartScanner", "Metrics $name: ${"%.1f".format(rate.fps)} fps")
+                rate.windowStart = now
+                rate.frames = 0
+            }
+        }
+    }
+
+    /**
+     * Frames per second over the last complete window of [name], or null before the first one.
+     */
+    fun fps(name: String): Double? {
+        val rate = rates[name] ?: return null
+        synchronized(rate) {
+            return if (rate.fps == 0.0) null else rate.fps
+        }
+    }
+
+    fun reset() {
+        timings.clear()
+        counters.clear()
+        rates.clear()
+    }
+}
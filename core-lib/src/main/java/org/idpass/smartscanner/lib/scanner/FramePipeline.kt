@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.scanner
+
+import androidx.camera.core.ImageAnalysis
+import androidx.camera.core.ImageProxy
+import java.util.concurrent.Executor
+import java.util.concurrent.RejectedExecutionException
+
+/**
+ * Two stage analysis: frames are copied and prepared on the camera thread, then recognized on
+ * [recognitionExecutor], so that the next frame is converted while the current one is recognized.
+ *
+ * Stage 1 detaches the frame (its [ImageProxy] goes back to the camera immediately) and runs
+ * [BaseImageAnalyzer.prepare]. At most [DEPTH] frames are held at once, one being recognized and one
+ * waiting. A newer prepared frame replaces the waiting one, so recognition always gets the latest.
+ */
+class FramePipeline(
+    private val analyzer: BaseImageAnalyzer,
+    private val recognitionExecutor: Executor
+) : ImageAnalysis.Analyzer {
+
+    companion object {
+        const val DEPTH = 2
+        const val METRIC_FPS = "fps/pipelined"
+        const val METRIC_REPLACED = "pipeline/replaced"
+    }
+
+    private val lock = Any()
+    private var waiting: Pair<ScannerFrame, LumaImage>? = null
+    private var inFlight = false
+
+    override fun analyze(imageProxy: ImageProxy) {
+        val frame = ScannerFrame(imageProxy)
+        // Near duplicates are dropped before paying for the copy
+        if (analyzer.isDuplicate(frame)) {
+            frame.close()
+            return
+        }
+        frame.detach()
+        val image = analyzer.prepare(frame)
+        if (image == null) {
+            frame.close()
+            return
+        }
+        val replaced = synchronized(lock) {
+            waiting.also { waiting = frame to image }
+        }
+        replaced?.let {
+            FrameMetrics.increment(METRIC_REPLACED)
+            it.first.close()
+        }
+        dispatch()
+    }
+
+    private fun dispatch() {
+        val (frame, image) = synchronized(lock) {
+            if (inFlight) return
+            val next = waiting ?: return
+            waiting = null
+            inFlight = true
+            next
+        }
+        frame.onClosed = {
+            FrameMetrics.tick(METRIC_FPS)
+            synchronized(lock) { inFlight = false }
+            dispatch()
+        }
+        try {
+            recognitionExecutor.execute { analyzer.recognize(frame, image) }
+        } catch (e: RejectedExecutionException) {
+            // the session is over, the executor has been shut down
+            frame.onClosed = null
+            frame.close()
+        }
+    }
+}
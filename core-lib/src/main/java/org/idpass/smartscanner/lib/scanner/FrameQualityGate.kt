@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.scanner
+
+import android.graphics.Rect
+import org.idpass.smartscanner.lib.scanner.config.QualityOptions
+import org.idpass.smartscanner.lib.utils.FocusMeter
+import org.idpass.smartscanner.lib.utils.LumaHistogram
+
+/**
+ * Cheap checks run on the luma plane before a frame is handed to a recognizer, so that frames taken
+ * while the card is still being positioned (dark, washed out, glare, blurred) are dropped early.
+ * Exposure is checked first since it only needs the histogram, sharpness last.
+ */
+class FrameQualityGate(options: QualityOptions? = null) {
+
+    enum class Verdict(val reason: String) {
+        PASS("ok"),
+        TOO_DARK("too dark"),
+        TOO_BRIGHT("too bright"),
+        LOW_CONTRAST("low contrast"),
+        GLARE("glare"),
+        BLURRY("blurry")
+    }
+
+    companion object {
+        const val METRIC_GATE = "gate/check"
+        private const val SATURATED = 250
+    }
+
+    private val minFocus = options?.minFocus ?: QualityOptions.default.minFocus!!
+    private val minMeanLuma = options?.minMeanLuma ?: QualityOptions.default.minMeanLuma!!
+    private val maxMeanLuma = options?.maxMeanLuma ?: QualityOptions.default.maxMeanLuma!!
+    private val minContrast = options?.minContrast ?: QualityOptions.default.minContrast!!
+    private val maxSaturatedRatio = options?.maxSaturatedRatio ?: QualityOptions.default.maxSaturatedRatio!!
+
+    private val histogram = LumaHistogram()
+    private val focusMeter = FocusMeter()
+
+    /**
+     * Measurements behind the last verdict, for logs and the debug overlay.
+     */
+    var summary = ""
+        private set
+
+    fun check(frame: ScannerFrame, roi: Rect? = null): Verdict {
+        frame.lumaHistogram(histogram, roi)
+        val mean = histogram.mean()
+        val contrast = histogram.percentile(95) - histogram.percentile(5)
+        val saturated = histogram.ratioAtOrAbove(SATURATED)
+        val exposure = when {
+            mean < minMeanLuma -> Verdict.TOO_DARK
+            mean > maxMeanLuma -> Verdict.TOO_BRIGHT
+            saturated > maxSaturatedRatio -> Verdict.GLARE
+            contrast < minContrast -> Verdict.LOW_CONTRAST
+            else -> null
+        }
+        if (exposure != null) {
+            summary = "mean $mean, contrast $contrast, saturated ${"%.3f".format(saturated)}"
+            return exposure
+        }
+        val focus = frame.focusScore(focusMeter, roi)
+        summary = "mean $mean, contrast $contrast, saturated ${"%.3f".format(saturated)}, focus ${"%.1f".format(focus)}"
+        return if (focus < minFocus) Verdict.BLURRY else Verdict.PASS
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.scanner
+
+import android.content.Context
+import android.util.Log
+import org.idpass.smartscanner.lib.SmartScannerActivity
+import org.idpass.smartscanner.lib.utils.FrameBufferPool
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.Executors
+
+/**
+ * Keeps the region of interest of successfully scanned frames of a [mode], with the value read from
+ * them, as input for [EngineCalibration]. Files are written on a background thread, at most
+ * [MAX_FRAMES] are kept per mode and the oldest go first.
+ *
+ * Recorded frames hold document images and the values read from them, so recording is opt-in through
+ * `Config.recordFrames`. They stay in the app's private storage, are deleted by [clear] once a calibration
+ * used them and are never kept longer than [MAX_AGE_MILLIS], even if no calibration runs.
+ */
+class FrameRecorder(context: Context, private val mode: String) {
+
+    companion object {
+        const val MAX_FRAMES = 50
+        const val MAX_AGE_MILLIS = 7L * 24 * 60 * 60 * 1000
+        private const val MAGIC = 0x534D4652 // "SMFR"
+        private const val EXTENSION = ".frame"
+        private val writer = Executors.newSingleThreadExecutor()
+
+        fun directory(context: Context, mode: String) = File(context.filesDir, "recorded-frames/$mode")
+
+        /**
+         * Frames recorded for [mode] within [MAX_AGE_MILLIS], oldest first. Unreadable files are skipped.
+         */
+        fun load(context: Context, mode: String): List<Recorded> {
+            return files(directory(context, mode)).filter { !isExpired(it) }.mapNotNull { file ->
+                try {
+                    DataInputStream(file.inputStream().buffered()).use { input ->
+                        if (input.readInt() != MAGIC) throw IOException("Not a recorded frame")
+                        val width = input.readInt()
+                        val height = input.readInt()
+                        val rotation = input.readInt()
+                        val expected = input.readUTF()
+                        val data = ByteArray(FrameBufferPool.bufferSize(width, height, FrameBufferPool.FORMAT_GRAY_NV21))
+                        input.readFully(data, 0, width * height)
+                        data.fill(128.toByte(), width * height)
+                        Recorded(LumaImage(data, width, height, rotation), expected)
+                    }
+                } catch (e: IOException) {
+                    Log.d("${SmartScannerActivity.TAG}/SmartScanner", "Recorded frame ${file.name}: $e")
+                    null
+                }
+            }
+        }
+
+        /**
+         * Deletes every frame recorded for [mode], on the recording thread.
+         */
+        fun clear(context: Context, mode: String) {
+            val directory = directory(context, mode)
+            writer.execute {
+                directory.listFiles().orEmpty().forEach { it.delete() }
+                Log.d("${SmartScannerActivity.TAG}/SmartScanner", "Recorded $mode frames deleted")
+            }
+        }
+
+        /**
+         * Deletes the frames recorded for [mode] more than [MAX_AGE_MILLIS] ago, on the recording thread.
+         */
+        fun deleteExpired(context: Context, mode: String) {
+            val directory = directory(context, mode)
+            writer.execute { deleteExpired(directory) }
+        }
+
+        private fun deleteExpired(directory: File) {
+            files(directory).filter { isExpired(it) }.forEach { it.delete() }
+        }
+
+        private fun isExpired(file: File) = System.currentTimeMillis() - file.lastModified() > MAX_AGE_MILLIS
+
+        private fun files(directory: File): List<File> {
+            return directory.listFiles { file -> file.name.endsWith(EXTENSION) }.orEmpty().sortedBy { it.name }
+        }
+    }
+
+    class Recorded(val image: LumaImage, val expected: String)
+
+    private val directory = directory(context, mode)
+
+    /**
+     * Records the region of interest of [frame], as handed to the engine, with the value [expected] from
+     * it. The pixels are copied right away, [frame] may be closed afterwards.
+     */
+    fun record(frame: ScannerFrame, expected: String) {
+        val image = frame.lastLumaImage() ?: return
+        val luma = image.data.copyOf(image.width * image.height)
+        writer.execute {
+            try {
+                directory.mkdirs()
+                val file = File(directory, "${System.currentTimeMillis()}$EXTENSION")
+                val part = File(file.path + ".part")
+                DataOutputStream(part.outputStream().buffered()).use { output ->
+                    output.writeInt(MAGIC)
+                    output.writeInt(image.width)
+                    output.writeInt(image.height)
+                    output.writeInt(image.rotation)
+                    output.writeUTF(expected)
+                    output.write(luma)
+                }
+                if (!part.renameTo(file)) throw IOException("Cannot move ${part.name}")
+                deleteExpired(directory)
+                val files = files(directory)
+                files.take(maxOf(0, files.size - MAX_FRAMES)).forEach { it.delete() }
+            } catch (e: IOException) {
+                Log.d("${SmartScannerActivity.TAG}/SmartScanner", "Cannot record $mode frame: $e")
+            }
+        }
+    }
+}
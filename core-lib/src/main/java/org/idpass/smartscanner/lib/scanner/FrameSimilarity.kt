@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.scanner
+
+import org.idpass.smartscanner.lib.scanner.config.QualityOptions
+import org.idpass.smartscanner.lib.utils.LumaThumbnail
+
+/**
+ * Tells frames that barely differ from the last recognized one, e.g. while a document is held still
+ * but cannot be read, so that they do not go through the recognizer again.
+ *
+ * Frames are compared on a 32x24 luma thumbnail. At most [QualityOptions.maxDuplicateSkips] frames in
+ * a row are skipped, and none right after [invalidate] (torch or focus change, manual capture).
+ * [isDuplicate] runs on the camera thread, [invalidate] may come from any thread.
+ */
+class FrameSimilarity(options: QualityOptions) {
+
+    companion object {
+        const val METRIC_SIMILARITY = "frame/similarity"
+        const val METRIC_SKIPPED = "similarity/skipped"
+    }
+
+    private val maxDifference = options.maxDuplicateDifference ?: QualityOptions.default.maxDuplicateDifference!!
+    private val maxSkips = options.maxDuplicateSkips ?: QualityOptions.default.maxDuplicateSkips!!
+
+    private var reference = LumaThumbnail()
+    private var current = LumaThumbnail()
+    private var hasReference = false
+    private var skips = 0
+
+    @Volatile
+    private var invalidated = false
+
+    /**
+     * Whether [frame] can be skipped. Frames that are not become the reference of the next ones.
+     */
+    fun isDuplicate(frame: ScannerFrame): Boolean = isDuplicate(frame::lumaThumbnail)
+
+    internal fun isDuplicate(thumbnail: (LumaThumbnail) -> Unit): Boolean {
+        thumbnail(current)
+        if (invalidated) {
+            invalidated = false
+            hasReference = false
+        }
+        if (hasReference && skips < maxSkips && current.difference(reference) < maxDifference) {
+            skips++
+            return true
+        }
+        val previous = reference
+        reference = current
+        current = previous
+        hasReference = true
+        skips = 0
+        return false
+    }
+
+    /**
+     * The camera changed or a result is expected, the next frame is recognized whatever it looks like.
+     */
+    fun invalidate() {
+        invalidated = true
+    }
+}
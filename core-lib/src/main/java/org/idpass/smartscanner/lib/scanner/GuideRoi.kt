@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.scanner
+
+import android.graphics.Rect
+
+/**
+ * Per-analyzer cache of a guide area in sensor coordinates. The area is only computed again when a new
+ * [ScanGeometry] is published or the frame size or rotation changes.
+ */
+class GuideRoi(private val compute: ScanGeometry.(width: Int, height: Int, rotation: Int) -> Rect?) {
+
+    private var geometry: ScanGeometry? = null
+    private var width = 0
+    private var height = 0
+    private var rotation = 0
+    private var roi: Rect? = null
+
+    fun of(geometry: ScanGeometry?, frame: ScannerFrame): Rect? {
+        if (geometry == null) return null
+        if (geometry !== this.geometry || frame.width != width || frame.height != height || frame.rotation != rotation) {
+            this.geometry = geometry
+            width = frame.width
+            height = frame.height
+            rotation = frame.rotation
+            roi = geometry.compute(width, height, rotation)
+        }
+        return roi
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.scanner
+
+import android.graphics.Point
+import android.graphics.Rect
+import java.io.Closeable
+
+/**
+ * Text or barcode recognizer the analyzers hand their region of interest to, so that ML Kit, ZXing or
+ * Tesseract can be picked at runtime through [RecognizerEngines].
+ *
+ * [recognize] blocks until the result is known and throws when recognition fails. It is called from one
+ * thread at a time, never the main thread: the camera thread, or the recognition thread of a
+ * [FramePipeline]. [close] releases the engine once the session is over.
+ */
+interface RecognizerEngine : Closeable {
+
+    val type: AnalyzerType
+
+    fun recognize(image: LumaImage): List<RecognizedLine>
+}
+
+/**
+ * Region of interest of a frame as handed to the engines: [width] x [height] luma bytes in [data],
+ * followed by neutral chroma so that it also reads as NV21 (see [FrameBufferPool.FORMAT_GRAY_NV21]).
+ * [rotation] is the clockwise rotation that makes it upright.
+ */
+class LumaImage(val data: ByteArray, val width: Int, val height: Int, val rotation: Int)
+
+/**
+ * A line of text, or a barcode, found by a [RecognizerEngine]. [box] and [corners] (top left, top right,
+ * bottom right, bottom left as x, y pairs) are in upright coordinates of the [LumaImage]. [confidence]
+ * goes from 0 to 1, null when the engine does not tell. Text engines that split lines into words list
+ * them in [words]; barcodes have their ML Kit `Barcode.FORMAT_*` in [format] and their payload bytes, when
+ * the engine has them, in [rawBytes].
+ */
+class RecognizedLine(
+    val text: String,
+    val box: Rect?,
+    val confidence: Float? = null,
+    val corners: FloatArray? = cornersOf(null, box),
+    val words: List<RecognizedLine> = emptyList(),
+    val format: Int? = null,
+    val rawBytes: ByteArray? = null
+) {
+    companion object {
+        /**
+         * Corners of a quadrilateral as x, y pairs, from its four [points] or else from its [box].
+         */
+        fun cornersOf(points: Array<Point>?, box: Rect?): FloatArray? {
+            if (points != null && points.size == 4) {
+                return FloatArray(8) { if (it % 2 == 0) points[it / 2].x.toFloat() else points[it / 2].y.toFloat() }
+            }
+            if (box == null) return null
+            return floatArrayOf(
+                box.left.toFloat(), box.top.toFloat(), box.right.toFloat(), box.top.toFloat(),
+                box.right.toFloat(), box.bottom.toFloat(), box.left.toFloat(), box.bottom.toFloat()
+            )
+        }
+    }
+}
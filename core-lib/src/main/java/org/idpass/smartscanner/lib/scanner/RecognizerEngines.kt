@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.scanner
+
+import android.content.Context
+import org.idpass.smartscanner.lib.platform.utils.PlayStoreUtils
+import org.idpass.smartscanner.lib.scanner.engine.MLKitBarcodeEngine
+import org.idpass.smartscanner.lib.scanner.engine.MLKitTextEngine
+import org.idpass.smartscanner.lib.scanner.engine.TesseractTextEngine
+import org.idpass.smartscanner.lib.scanner.engine.ZXingBarcodeEngine
+
+/**
+ * Picks and creates the [RecognizerEngine] of a session from `ScannerOptions.engine`.
+ */
+object RecognizerEngines {
+
+    /**
+     * Engine name asking for the fastest accurate engine measured on this device model by an
+     * [EngineCalibration], or the default one until it has run.
+     */
+    const val FASTEST = "FASTEST"
+
+    val TEXT = listOf(AnalyzerType.MLKIT, AnalyzerType.TESSERACT)
+    val BARCODE = listOf(AnalyzerType.MLKIT, AnalyzerType.ZXING)
+
+    /**
+     * [FrameMetrics] name of the recognition time of [type].
+     */
+    fun metric(type: AnalyzerType) = "recognizer/${type.name.lowercase()}"
+
+    /**
+     * Whether [type] can run on this device: ML Kit needs Play services, Tesseract its model in the assets.
+     */
+    fun isAvailable(context: Context, type: AnalyzerType): Boolean {
+        return when (type) {
+            AnalyzerType.MLKIT -> PlayStoreUtils.isPlayServicesAvailable(context)
+            AnalyzerType.TESSERACT -> TesseractTextEngine.isAvailable(context)
+            AnalyzerType.ZXING -> true
+            else -> false
+        }
+    }
+
+    /**
+     * Engine of [mode] among [candidates] for [requested], an [AnalyzerType] name or [FASTEST]. A named
+     * candidate is always used; otherwise the calibrated one for [FASTEST], else the first available one.
+     */
+    fun select(context: Context, candidates: List<AnalyzerType>, requested: String?, mode: String): AnalyzerType {
+        candidates.firstOrNull { it.name == requested }?.let { return it }
+        if (requested == FASTEST) {
+            EngineCalibration.fastest(context, mode)?.takeIf { candidates.contains(it) }?.let { return it }
+        }
+        return candidates.firstOrNull { isAvailable(context, it) } ?: candidates.first()
+    }
+
+    /**
+     * Text engine of [type], restricted to [alphabet] when the engine supports it.
+     */
+    fun text(context: Context, type: AnalyzerType, alphabet: String? = null): RecognizerEngine {
+        return when (type) {
+            AnalyzerType.TESSERACT -> TesseractTextEngine(context.applicationContext, alphabet = alphabet)
+            else -> MLKitTextEngine()
+        }
+    }
+
+    /**
+     * Barcode engine of [type] for ML Kit `Barcode.FORMAT_*` [formats].
+     */
+    fun barcode(type: AnalyzerType, formats: List<Int>): RecognizerEngine {
+        return when (type) {
+            AnalyzerType.ZXING -> ZXingBarcodeEngine(formats)
+            else -> MLKitBarcodeEngine(formats)
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.scanner
+
+import android.graphics.Rect
+import android.os.SystemClock
+
+/**
+ * Remembers where the target of a scan (MRZ lines, matched text) was last seen, so that the next frames
+ * only recognize an expanded crop around it instead of the whole frame.
+ *
+ * Regions are in sensor coordinates (see [ScannerFrame.toSensor]). The tracked region is dropped after
+ * [maxMisses] frames in a row without the target, or when it has not been seen for [decayMillis].
+ * [hit] and [miss] come from the recognizer callbacks while [roi] is read when preparing frames.
+ */
+class RegionTracker(
+    private val margin: Float = 0.5F,
+    private val maxMisses: Int = 3,
+    private val decayMillis: Long = 1000
+) {
+
+    companion object {
+        const val METRIC_TRACKED = "tracker/tracked"
+        const val METRIC_LOST = "tracker/lost"
+    }
+
+    private var region: Rect? = null
+    private var seenAt = 0L
+    private var misses = 0
+
+    /**
+     * The target was found at [region] (sensor coordinates).
+     */
+    @Synchronized
+    fun hit(region: Rect) {
+        this.region = Rect(region)
+        seenAt = SystemClock.elapsedRealtime()
+        misses = 0
+    }
+
+    /**
+     * The target was not found on a frame.
+     */
+    @Synchronized
+    fun miss() {
+        if (region != null && ++misses >= maxMisses) lose()
+    }
+
+    @Synchronized
+    fun reset() {
+        region = null
+        misses = 0
+    }
+
+    /**
+     * Tracked region grown by [margin] times its shorter side on each side and clamped to a
+     * [width] x [height] frame, or null when nothing is tracked and the caller's own region applies.
+     */
+    @Synchronized
+    fun roi(width: Int, height: Int): Rect? {
+        val tracked = region ?: return null
+        if (SystemClock.elapsedRealtime() - seenAt > decayMillis) {
+            lose()
+            return null
+        }
+        val grow = (minOf(tracked.width(), tracked.height()) * margin).toInt()
+        val roi = Rect(tracked.left - grow, tracked.top - grow, tracked.right + grow, tracked.bottom + grow)
+        if (!roi.intersect(0, 0, width, height)) return null
+        // Even coordinates, the crop is handed to the recognizer as NV21
+        roi.left = roi.left and 1.inv()
+        roi.top = roi.top and 1.inv()
+        roi.right = roi.left + (roi.width() and 1.inv())
+        roi.bottom = roi.top + (roi.height() and 1.inv())
+        if (roi.isEmpty) return null
+        FrameMetrics.increment(METRIC_TRACKED)
+        return roi
+    }
+
+    private fun lose() {
+        region = null
+        misses = 0
+        FrameMetrics.increment(METRIC_LOST)
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.scanner
+
+import android.content.ClipData
+import android.content.Context
+import android.content.Intent
+import android.net.Uri
+import android.os.Bundle
+import android.util.Log
+import androidx.core.content.FileProvider
+import com.google.gson.JsonObject
+import com.google.gson.JsonParser
+import org.idpass.smartscanner.lib.SmartScannerActivity
+import java.io.File
+import java.io.IOException
+
+/**
+ * Opt-in transport of bulky scan results: instead of travelling in the result Intent, the JSON result and
+ * every string extra over [MAX_INLINE] characters (Base64 images, mostly) are written once to a JSON file,
+ * shared through [ResultFileProvider] with a temporary read grant. The Intent keeps the small fields and
+ * the URI of the file in [SmartScannerActivity.SCANNER_RESULT_URI].
+ *
+ * Hosts ask for it with [SmartScannerActivity.SCANNER_RESULT_FILE] and read the file back with [read];
+ * hosts that don't get the extras inline as before.
+ */
+object ResultFileTransport {
+
+    const val MAX_INLINE = 1024
+    const val MAX_FILES = 10
+    private const val DIRECTORY = "smartscanner-results"
+    private const val EXTENSION = ".json"
+
+    fun isRequested(intent: Intent) = intent.getBooleanExtra(SmartScannerActivity.SCANNER_RESULT_FILE, false)
+
+    fun authority(context: Context) = "${context.packageName}.smartscanner.results"
+
+    /**
+     * Moves the bulky extras of [data] to a result file when [request], the Intent that started the scan,
+     * asks for it. [data] is left untouched when the file cannot be written.
+     */
+    fun apply(context: Context, request: Intent, data: Intent) {
+        if (!isRequested(request)) return
+        val extras = data.extras ?: return
+        val payload = JsonObject()
+        val moved = mutableListOf<String>()
+        val trimmed = mutableMapOf<String, Bundle>()
+        // Only strings are moved, at the top level or in nested bundles; other values stay in the Intent
+        for (key in extras.keySet()) {
+            val value = extras.getString(key)
+            if (value != null) {
+                if (key == SmartScannerActivity.SCANNER_RESULT || value.length > MAX_INLINE) {
+                    payload.addProperty(key, value)
+                    moved.add(key)
+                }
+                continue
+            }
+            val bundle = extras.getBundle(key) ?: continue
+            val nested = JsonObject()
+            val small = Bundle(bundle)
+            for (nestedKey in bundle.keySet()) {
+                val nestedValue = bundle.getString(nestedKey)
+                if (nestedValue != null && nestedValue.length > MAX_INLINE) {
+                    nested.addProperty(nestedKey, nestedValue)
+                    small.remove(nestedKey)
+                }
+            }
+            if (nested.size() > 0) {
+                payload.add(key, nested)
+                trimmed[key] = small
+            }
+        }
+        if (payload.size() == 0) return
+        val file = write(context, payload.toString()) ?: return
+        moved.forEach { data.removeExtra(it) }
+        trimmed.forEach { (key, small) -> data.putExtra(key, small) }
+        val uri = FileProvider.getUriForFile(context, authority(context), file)
+        data.putExtra(SmartScannerActivity.SCANNER_RESULT_URI, uri)
+        data.clipData = ClipData.newRawUri(null, uri)
+        data.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION)
+    }
+
+    /**
+     * Payload of a result file: the moved extras by key, nested bundles as objects. Null when it cannot
+     * be read.
+     */
+    fun read(context: Context, uri: Uri): JsonObject? {
+        return try {
+            context.contentResolver.openInputStream(uri)?.reader()?.use { reader ->
+                JsonParser.parseReader(reader).asJsonObject
+            }
+        } catch (e: Exception) {
+            Log.d("${SmartScannerActivity.TAG}/SmartScanner", "Result file $uri: $e")
+            null
+        }
+    }
+
+    private fun write(context: Context, json: String): File? {
+        val directory = File(context.cacheDir, DIRECTORY)
+        return try {
+            directory.mkdirs()
+            val file = File(directory, "${System.currentTimeMillis()}$EXTENSION")
+            val part = File(file.path + ".part")
+            part.writeText(json)
+            if (!part.renameTo(file)) throw IOException("Cannot move ${part.name}")
+            val files = directory.listFiles { f -> f.name.endsWith(EXTENSION) }.orEmpty().sortedBy { it.name }
+            files.take(maxOf(0, files.size - MAX_FILES)).forEach { it.delete() }
+            file
+        } catch (e: IOException) {
+            Log.d("${SmartScannerActivity.TAG}/SmartScanner", "Cannot write result file: $e")
+            null
+        }
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.scanner
+
+import android.content.Context
+import android.content.Intent
+import android.graphics.Bitmap
+import android.graphics.ImageFormat
+import android.graphics.Matrix
+import android.graphics.Rect
+import android.graphics.YuvImage
+import android.os.Build
+import android.util.Base64
+import android.util.Base64OutputStream
+import android.util.Log
+import org.idpass.smartscanner.lib.SmartScannerActivity
+import org.idpass.smartscanner.lib.scanner.config.ImageOptions
+import org.idpass.smartscanner.lib.scanner.config.ImageResultFormat
+import org.idpass.smartscanner.lib.scanner.config.ImageResultType
+import org.idpass.smartscanner.lib.utils.FrameBufferPool
+import org.idpass.smartscanner.lib.utils.extension.cacheImagePath
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.IOException
+import java.io.OutputStream
+
+/**
+ * Result image of a scan, the upright center square of the frame, encoded once straight to where the
+ * caller wants it: a file in the cache directory, or Base64 with no file at all unless [keepFile] is set,
+ * for results that also report the path of the cached image.
+ *
+ * Frames are cropped, rotated and downscaled to the smallest of [maxSide] and [ImageOptions.maxEdge] on
+ * their NV21 data into a pooled buffer, which [YuvImage] compresses to JPEG in a single pass; WebP goes
+ * through one ARGB bitmap converted from that buffer. Bitmaps from other sources go through one crop and
+ * rotate bitmap before the same single compression.
+ *
+ * Asynchronous encoding only copies the pixels before returning the reserved path, the image is written by
+ * [ResultImageWriter]. Base64 results are always encoded right away since they carry the image itself.
+ */
+class ResultImageEncoder(
+    private val context: Context,
+    private val imageResultType: String,
+    private val base64Quality: Int = 40,
+    private val fileQuality: Int = 80,
+    private val maxSide: Int = 0,
+    private val keepFile: Boolean = false
+) {
+
+    companion object {
+        const val METRIC_ENCODE = "result/encode"
+    }
+
+    /**
+     * [image] is what the result carries: the Base64 image for [ImageResultType.BASE_64], else [path].
+     * [path] is null when no file was written, which for Base64 is only the case without [keepFile]. Both are null when encoding failed. [bytes] is the size
+     * of [image] as delivered, -1 while it is written in the background, and [millis] the time encoding
+     * took before the result could be returned.
+     */
+    class Encoded(val path: String?, val image: String?, val format: String, val bytes: Long = -1, val millis: Long = 0) {
+
+        /**
+         * Reports the format, size and encoding time of the image in the result [intent].
+         */
+        fun putInto(intent: Intent) {
+            if (image == null) return
+            intent.putExtra(SmartScannerActivity.SCANNER_IMAGE_FORMAT, format)
+            if (bytes >= 0) intent.putExtra(SmartScannerActivity.SCANNER_IMAGE_SIZE, bytes)
+            intent.putExtra(SmartScannerActivity.SCANNER_IMAGE_ENCODE_TIME, millis)
+        }
+    }
+
+    /**
+     * [ImageOptions] resolved against the defaults of this encoder.
+     */
+    private inner class Policy(options: ImageOptions?) {
+        val format = options?.format ?: ImageOptions.default.format!!
+        val webp = format == ImageResultFormat.WEBP.value
+        val quality = (options?.quality ?: if (isBase64) base64Quality else fileQuality).coerceIn(0, 100)
+        val maxSide = listOf(this@ResultImageEncoder.maxSide, options?.maxEdge ?: 0).filter { it > 0 }.minOrNull() ?: 0
+        val grayscale = options?.grayscale ?: ImageOptions.default.grayscale!!
+        val extension = if (webp) "webp" else "jpg"
+
+        val compressFormat: Bitmap.CompressFormat
+            get() = when {
+                !webp -> Bitmap.CompressFormat.JPEG
+                Build.VERSION.SDK_INT >= Build.VERSION_CODES.R -> Bitmap.CompressFormat.WEBP_LOSSY
+                else -> @Suppress("DEPRECATION") Bitmap.CompressFormat.WEBP
+            }
+    }
+
+    private val isBase64 = imageResultType == ImageResultType.BASE_64.value
+
+    fun encode(frame: ScannerFrame, options: ImageOptions? = null, async: Boolean = false): Encoded = timed {
+        val policy = Policy(options)
+        if (async && !isBase64) {
+            val square = uprightSquare(frame, policy)
+            writeLater(policy) { output -> square.compress(output) }
+        } else {
+            write(policy) { output -> uprightSquare(frame, policy).compress(output) }
+        }
+    }
+
+    /**
+     * Encodes the center square of [bitmap] turned by [rotation]. [ImageOptions.grayscale] only applies to
+     * camera frames.
+     */
+    fun encode(bitmap: Bitmap, rotation: Int = 0, options: ImageOptions? = null, async: Boolean = false): Encoded = timed {
+        val policy = Policy(options)
+        val square = uprightSquare(bitmap, rotation, policy)
+        val compress = { output: OutputStream -> square.compress(policy.compressFormat, policy.quality, output) }
+        if (async && !isBase64) writeLater(policy, compress) else write(policy, compress)
+    }
+
+    private inline fun timed(encode: () -> Encoded): Encoded {
+        val start = System.nanoTime()
+        val encoded = encode()
+        val nanos = System.nanoTime() - start
+        FrameMetrics.record(METRIC_ENCODE, nanos)
+        return Encoded(encoded.path, encoded.image, encoded.format, encoded.bytes, nanos / 1_000_000)
+    }
+
+    private fun writeLater(policy: Policy, encode: (OutputStream) -> Boolean): Encoded {
+        val path = context.cacheImagePath(extension = policy.extension)
+        ResultImageWriter.write(path, encode)
+        return Encoded(path, path, policy.format)
+    }
+
+    private fun write(policy: Policy, encode: (OutputStream) -> Boolean): Encoded {
+        try {
+            if (isBase64 && keepFile) {
+                val file = File(context.cacheImagePath(extension = policy.extension))
+                if (!file.outputStream().buffered().use(encode)) return Encoded(null, null, policy.format)
+                val image = Base64.encodeToString(file.readBytes(), Base64.DEFAULT)
+                return Encoded(file.path, image, policy.format, image.length.toLong())
+            }
+            if (isBase64) {
+                val bytes = ByteArrayOutputStream()
+                val encoded = Base64OutputStream(bytes, Base64.DEFAULT).use(encode)
+                return if (encoded) {
+                    Encoded(null, bytes.toString(), policy.format, bytes.size().toLong())
+                } else Encoded(null, null, policy.format)
+            }
+            val file = File(context.cacheImagePath(extension = policy.extension))
+            val encoded = file.outputStream().buffered().use(encode)
+            return if (encoded) {
+                Encoded(file.path, file.path, policy.format, file.length())
+            } else Encoded(null, null, policy.format)
+        } catch (e: IOException) {
+            Log.d("${SmartScannerActivity.TAG}/SmartScanner", "Result image: $e")
+            return Encoded(null, null, policy.format)
+        }
+    }
+
+    /**
+     * Upright center square of a frame in a pooled NV21 buffer, given back to the pool once compressed.
+     */
+    private inner class Square(val data: ByteArray, val side: Int, val policy: Policy) {
+        fun compress(output: OutputStream): Boolean {
+            try {
+                if (!policy.webp) {
+                    return YuvImage(data, ImageFormat.NV21, side, side, null)
+                        .compressToJpeg(Rect(0, 0, side, side), policy.quality, output)
+                }
+                val colors = IntArray(side * side)
+                argb(data, side, policy.grayscale, colors)
+                val bitmap = Bitmap.createBitmap(colors, side, side, Bitmap.Config.ARGB_8888)
+                return bitmap.compress(policy.compressFormat, policy.quality, output)
+            } finally {
+                FrameBufferPool.release(data, side, side, ImageFormat.NV21)
+            }
+        }
+    }
+
+    private fun uprightSquare(frame: ScannerFrame, policy: Policy): Square {
+        val buffer = frame.nv21()
+        val nv21 = if (buffer.hasArray() && buffer.arrayOffset() == 0) {
+            buffer.array()
+        } else {
+            ByteArray(buffer.limit()).also { buffer.duplicate().apply { rewind() }.get(it) }
+        }
+        val crop = minOf(frame.width, frame.height) and 1.inv()
+        val side = (if (policy.maxSide in 1 until crop) policy.maxSide else crop) and 1.inv()
+        val square = FrameBufferPool.acquire(side, side, ImageFormat.NV21)
+        uprightSquare(nv21, frame.width, frame.height, frame.rotation, crop, side, policy.grayscale, square)
+        return Square(square, side, policy)
+    }
+
+    private fun uprightSquare(bitmap: Bitmap, rotation: Int, policy: Policy): Bitmap {
+        val crop = minOf(bitmap.width, bitmap.height)
+        val scale = if (policy.maxSide in 1 until crop) policy.maxSide.toFloat() / crop else 1F
+        val matrix = Matrix().apply {
+            postScale(scale, scale)
+            postRotate(rotation.toFloat())
+        }
+        return Bitmap.createBitmap(
+            bitmap, (bitmap.width - crop) / 2, (bitmap.height - crop) / 2, crop, crop, matrix, true
+        )
+    }
+
+    /**
+     * Copies the center [crop] x [crop] square of a [width] x [height] NV21 image into [out] as an
+     * upright [side] x [side] NV21 image, nearest neighbour when downscaled, with neutral chroma when
+     * [grayscale]. Same rotation mapping as [SensorRoi.toSensor]; every output pixel reads
+     * `base + scaled[u] * du + scaled[v] * dv`.
+     */
+    private fun uprightSquare(
+        nv21: ByteArray, width: Int, height: Int, rotation: Int, crop: Int, side: Int, grayscale: Boolean, out: ByteArray
+    ) {
+        val left = ((width - crop) / 2) and 1.inv()
+        val top = ((height - crop) / 2) and 1.inv()
+        val scaled = IntArray(side) { it * crop / side }
+        val last = crop - 1
+        val (base, du, dv) = when (rotation) {
+            90 -> Triple((top + last) * width + left, -width, 1)
+            180 -> Triple((top + last) * width + left + last, -1, -width)
+            270 -> Triple(top * width + left + last, width, -1)
+            else -> Triple(top * width + left, 1, width)
+        }
+        var index = 0
+        for (v in 0 until side) {
+            val row = base + scaled[v] * dv
+            for (u in 0 until side) {
+                out[index++] = nv21[row + scaled[u] * du]
+            }
+        }
+        if (grayscale) {
+            out.fill(128.toByte(), index, index + 2 * (side / 2) * (side / 2))
+            return
+        }
+        // Chroma is interleaved V, U at half resolution, the same mapping on pairs of bytes
+        val half = side / 2
+        val lastC = crop / 2 - 1
+        val chroma = width * height
+        val (baseC, duC, dvC) = when (rotation) {
+            90 -> Triple(chroma + (top / 2 + lastC) * width + left, -width, 2)
+            180 -> Triple(chroma + (top / 2 + lastC) * width + left + 2 * lastC, -2, -width)
+            270 -> Triple(chroma + top / 2 * width + left + 2 * lastC, width, -2)
+            else -> Triple(chroma + top / 2 * width + left, 2, width)
+        }
+        for (v in 0 until half) {
+            val row = baseC + scaled[v] * dvC
+            for (u in 0 until half) {
+                val source = row + scaled[u] * duC
+                out[index++] = nv21[source]
+                out[index++] = nv21[source + 1]
+            }
+        }
+    }
+
+    /**
+     * Full range BT.601 conversion of a [side] x [side] NV21 image to ARGB [colors], luma only when [grayscale].
+     */
+    private fun argb(nv21: ByteArray, side: Int, grayscale: Boolean, colors: IntArray) {
+        val chroma = side * side
+        for (y in 0 until side) {
+            val chromaRow = chroma + (y shr 1) * side
+            for (x in 0 until side) {
+                val luma = nv21[y * side + x].toInt() and 0xFF
+                if (grayscale) {
+                    colors[y * side + x] = (0xFF shl 24) or (luma shl 16) or (luma shl 8) or luma
+                    continue
+                }
+                val index = chromaRow + (x and 1.inv())
+                val v = (nv21[index].toInt() and 0xFF) - 128
+                val u = (nv21[index + 1].toInt() and 0xFF) - 128
+                val r = (luma + ((1436 * v) shr 10)).coerceIn(0, 255)
+                val g = (luma - ((352 * u + 731 * v) shr 10)).coerceIn(0, 255)
+                val b = (luma + ((1815 * u) shr 10)).coerceIn(0, 255)
+                colors[y * side + x] = (0xFF shl 24) or (r shl 16) or (g shl 8) or b
+            }
+        }
+    }
+}
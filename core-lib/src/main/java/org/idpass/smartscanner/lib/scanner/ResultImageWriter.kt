@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.scanner
+
+import android.util.Log
+import org.idpass.smartscanner.lib.SmartScannerActivity
+import java.io.File
+import java.io.IOException
+import java.io.OutputStream
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * Writes result images after their path has been returned with the scan result. Each image is written
+ * to a `.part` file and renamed once complete, so a file at the returned path is always a whole JPEG.
+ * A host app that needs the image right away waits for it with [awaitReady].
+ */
+object ResultImageWriter {
+
+    const val METRIC_WRITE = "result/write"
+    private const val POLL_MILLIS = 20L
+
+    private val writer = Executors.newSingleThreadExecutor()
+    private val pending = ConcurrentHashMap<String, CountDownLatch>()
+
+    /**
+     * Writes the image at [path] on the background writer, [encode] receiving the stream to write to.
+     */
+    fun write(path: String, encode: (OutputStream) -> Boolean) {
+        val written = CountDownLatch(1)
+        pending[path] = written
+        writer.execute {
+            val file = File(path)
+            val part = File("$path.part")
+            try {
+                FrameMetrics.measure(METRIC_WRITE) {
+                    val encoded = part.outputStream().buffered().use(encode)
+                    if (!encoded || !part.renameTo(file)) throw IOException("Cannot write ${file.name}")
+                }
+            } catch (e: IOException) {
+                Log.d("${SmartScannerActivity.TAG}/SmartScanner", "Result image: $e")
+                part.delete()
+            } finally {
+                pending.remove(path, written)
+                written.countDown()
+            }
+        }
+    }
+
+    /**
+     * Waits up to [timeout] for the image at [path] to be written. Returns false when it is still missing,
+     * also when writing it failed. Images written by another process are polled for.
+     */
+    fun awaitReady(path: String, timeout: Long, unit: TimeUnit): Boolean {
+        val deadline = System.nanoTime() + unit.toNanos(timeout)
+        pending[path]?.await(timeout, unit)
+        val file = File(path)
+        while (!file.exists()) {
+            if (System.nanoTime() >= deadline) return false
+            Thread.sleep(POLL_MILLIS)
+        }
+        return true
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.scanner
+
+import android.graphics.Rect
+import android.graphics.RectF
+import android.view.View
+import org.idpass.smartscanner.lib.utils.extension.toPx
+
+/**
+ * Immutable snapshot of the scanner overlay layout, in view pixels.
+ *
+ * It is taken on the main thread whenever the layout changes and handed to the analyzers through
+ * [BaseImageAnalyzer.geometry], so that the camera thread never touches a view.
+ */
+data class ScanGeometry(
+    val viewFinderWidth: Int,
+    val viewFinderHeight: Int,
+    val guideWidth: Int,
+    val guideHeight: Int,
+    val xGuideWidth: Int,
+    val yGuideHeight: Int,
+    val mrzLeft: Int = (25 - 16).toPx,
+    val mrzBottom: Int = 30.toPx
+) {
+    companion object {
+        /**
+         * Reads the current view sizes, to be called on the main thread. Null until the views are laid out.
+         */
+        fun of(viewFinder: View?, guide: View?, xGuide: View?, yGuide: View?): ScanGeometry? {
+            if (viewFinder == null || guide == null) return null
+            if (viewFinder.width <= 0 || guide.width <= 0) return null
+            return ScanGeometry(
+                viewFinderWidth = viewFinder.width,
+                viewFinderHeight = viewFinder.height,
+                guideWidth = guide.width,
+                guideHeight = guide.height,
+                xGuideWidth = xGuide?.width ?: 0,
+                yGuideHeight = yGuide?.height ?: 0
+            )
+        }
+    }
+
+    /**
+     * MRZ guide area of a [width] x [height] frame with the given [rotation], in sensor coordinates.
+     */
+    fun mrzRoi(width: Int, height: Int, rotation: Int): Rect? {
+        val sideways = rotation == 90 || rotation == 270
+        val uprightWidth = if (sideways) height else width
+        val uprightHeight = if (sideways) width else height
+        val (cropTop, _) = SensorRoi.previewBand(uprightWidth, uprightHeight, viewFinderWidth, viewFinderHeight)
+        // Crop MRZ area
+        val ratio = uprightWidth.toFloat() / viewFinderWidth.toFloat()
+        val x = mrzLeft * ratio
+        val y = cropTop + (viewFinderHeight - mrzBottom - guideHeight) * ratio
+        val upright = RectF(x, y, x + guideWidth * ratio, y + guideHeight * ratio)
+        return SensorRoi.toSensor(upright, width, height, rotation)
+    }
+
+    /**
+     * OCR guide area of a [width] x [height] frame with the given [rotation], in sensor coordinates.
+     */
+    fun ocrRoi(width: Int, height: Int, rotation: Int): Rect? {
+        val sideways = rotation == 90 || rotation == 270
+        val uprightWidth = if (sideways) height else width
+        val uprightHeight = if (sideways) width else height
+        val (cropTop, cropHeight) = SensorRoi.previewBand(uprightWidth, uprightHeight, viewFinderWidth, viewFinderHeight)
+        // Crop OCR area
+        val ratio = uprightWidth.toFloat() / viewFinderWidth.toFloat()
+        val guideWidth = guideWidth * ratio
+        val guideHeight = guideHeight * ratio
+        var x = xGuideWidth * ratio
+        var y = yGuideHeight * ratio
+
+        if (x + guideWidth > uprightWidth) {
+            val diff = x + guideWidth - uprightWidth
+            x -= diff
+        }
+
+        if (y + guideHeight > cropHeight) {
+            val diff = y + guideHeight - cropHeight
+            y -= diff
+        }
+        val upright = RectF(x, cropTop + y, x + guideWidth, cropTop + y + guideHeight)
+        return SensorRoi.toSensor(upright, width, height, rotation)
+    }
+}
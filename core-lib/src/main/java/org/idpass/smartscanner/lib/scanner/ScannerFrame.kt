@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.scanner
+
+import android.annotation.SuppressLint
+import android.graphics.ImageFormat
+import android.graphics.Rect
+import android.graphics.RectF
+import androidx.camera.core.ImageProxy
+import org.idpass.smartscanner.lib.mrz.MRZBandDetector
+import org.idpass.smartscanner.lib.utils.BitmapUtils
+import org.idpass.smartscanner.lib.utils.FocusMeter
+import org.idpass.smartscanner.lib.utils.FrameBufferPool
+import org.idpass.smartscanner.lib.utils.LumaEnhancer
+import org.idpass.smartscanner.lib.utils.LumaHistogram
+import org.idpass.smartscanner.lib.utils.LumaThumbnail
+import java.nio.ByteBuffer
+
+/**
+ * Single camera frame handed to the analyzers.
+ *
+ * The recognizer input is built straight from the YUV_420_888 planes of the [ImageProxy], so no
+ * JPEG compression takes place on the per-frame path. The NV21 buffer is only materialized on
+ * demand, typically when a result image has to be returned to the caller.
+ *
+ * When analysis is pipelined the frame is [detach]ed first: the planes are copied to NV21 and the
+ * [ImageProxy] is handed back to the camera right away, everything else then reads from the copy.
+ */
+@SuppressLint("UnsafeExperimentalUsageError", "UnsafeOptInUsageError")
+class ScannerFrame(private val imageProxy: ImageProxy) {
+
+    companion object {
+        const val METRIC_LEGACY = "frame/legacy-jpeg"
+        const val METRIC_LUMA = "frame/luma-image"
+        const val METRIC_FOCUS = "frame/focus"
+        const val METRIC_MRZ_BAND = "frame/mrz-band"
+
+        /**
+         * When enabled, every frame is also converted through the former NV21 -> JPEG -> Bitmap path
+         * and both timings are logged by [FrameMetrics] for comparison on device. Set from
+         * `Config.compareLegacyPath`.
+         */
+        @Volatile
+        var compareLegacyPath = false
+    }
+
+    val width: Int = imageProxy.width
+    val height: Int = imageProxy.height
+    val rotation: Int = imageProxy.imageInfo.rotationDegrees
+
+    private var nv21: ByteBuffer? = null
+    private var nv21Buffer: ByteArray? = null
+    private var lumaBuffer: ByteArray? = null
+    private var lumaWidth = 0
+    private var lumaHeight = 0
+    private var detached = false
+    private var closed = false
+    private var legacyMeasured = false
+
+    /**
+     * Region of interest chosen by the analyzer while preparing the frame, in sensor coordinates.
+     */
+    var roi: Rect? = null
+
+    /**
+     * Invoked once when the frame is closed, e.g. to schedule the next recognition.
+     */
+    var onClosed: (() -> Unit)? = null
+
+    /**
+     * Copies the frame to a pooled NV21 buffer and closes the [ImageProxy], so that the camera can
+     * deliver the next frame while this one is still being recognized.
+     */
+    fun detach() {
+        if (detached) return
+        nv21()
+        detached = true
+        imageProxy.close()
+    }
+
+    /**
+     * Y plane and its row stride, read from the NV21 copy once the frame is detached.
+     */
+    private fun lumaPlane(): Pair<ByteBuffer, Int> {
+        if (detached) return ByteBuffer.wrap(nv21Buffer!!) to width
+        val yPlane = imageProxy.planes[0]
+        return yPlane.buffer to yPlane.rowStride
+    }
+
+    /**
+     * Times the former NV21 -> JPEG -> Bitmap conversion of this frame once, when [compareLegacyPath] is set,
+     * next to the [toLumaImage] copy that replaced it.
+     * Detached frames no longer have their planes and are not measured.
+     */
+    private fun measureLegacyPath() {
+        if (!compareLegacyPath || legacyMeasured || detached) return
+        legacyMeasured = true
+        FrameMetrics.measure(METRIC_LEGACY) { BitmapUtils.getBitmap(imageProxy) }
+    }
+
+    /**
+     * Greyscale recognizer input built from the Y plane only, enhanced through [enhancer] on the way.
+     * Chroma is left neutral, so only one byte per pixel is written per frame. When [roi] is given (in
+     * sensor coordinates, see [SensorRoi]) only that region is copied; rotation is left to the engine.
+     * Valid until [close].
+     */
+    fun toLumaImage(enhancer: LumaEnhancer, roi: Rect? = null): LumaImage {
+        measureLegacyPath()
+        return FrameMetrics.measure(METRIC_LUMA) {
+            val region = roi ?: Rect(0, 0, width, height)
+            val buffer = lumaBuffer
+                ?: FrameBufferPool.acquire(region.width(), region.height(), FrameBufferPool.FORMAT_GRAY_NV21).also {
+                    lumaBuffer = it
+                    lumaWidth = region.width()
+                    lumaHeight = region.height()
+                }
+            val (plane, rowStride) = lumaPlane()
+            enhancer.apply(plane, rowStride, region.left, region.top, lumaWidth, lumaHeight, buffer)
+            LumaImage(buffer, lumaWidth, lumaHeight, rotation)
+        }
+    }
+
+    /**
+     * The region copied by the last [toLumaImage], as handed to the [RecognizerEngine]; null before.
+     * Valid until [close].
+     */
+    fun lastLumaImage(): LumaImage? = lumaBuffer?.let { LumaImage(it, lumaWidth, lumaHeight, rotation) }
+
+    /**
+     * Sharpness of the frame, or of [roi] (sensor coordinates) when given, measured on the Y plane.
+     */
+    fun focusScore(meter: FocusMeter, roi: Rect? = null): Double {
+        return FrameMetrics.measure(METRIC_FOCUS) {
+            val region = roi ?: Rect(0, 0, width, height)
+            val (plane, rowStride) = lumaPlane()
+            meter.score(plane, rowStride, region.left, region.top, region.width(), region.height())
+        }
+    }
+
+    /**
+     * Maps [box], in the upright coordinates of the recognizer input built from this frame, back to
+     * sensor coordinates of the frame. Null if nothing of it is on the frame.
+     */
+    fun toSensor(box: Rect): Rect? {
+        val region = roi ?: Rect(0, 0, width, height)
+        return SensorRoi.toSensor(RectF(box), region.width(), region.height(), rotation)
+            ?.apply { offset(region.left, region.top) }
+    }
+
+    /**
+     * MRZ band of the frame, or of [roi] when given, in sensor coordinates; null when no MRZ is found.
+     */
+    fun locateMrz(detector: MRZBandDetector, roi: Rect? = null): Rect? {
+        return FrameMetrics.measure(METRIC_MRZ_BAND) {
+            val region = roi ?: Rect(0, 0, width, height)
+            val (plane, rowStride) = lumaPlane()
+            detector.locate(plane, rowStride, region.left, region.top, region.width(), region.height(), rotation)
+        }
+    }
+
+    /**
+     * Fills [histogram] from the frame, or from [roi] (sensor coordinates) when given.
+     */
+    fun lumaHistogram(histogram: LumaHistogram, roi: Rect? = null) {
+        val region = roi ?: Rect(0, 0, width, height)
+        val (plane, rowStride) = lumaPlane()
+        histogram.compute(plane, rowStride, region.left, region.top, region.width(), region.height())
+    }
+
+    /**
+     * Fills [thumbnail] from the whole frame.
+     */
+    fun lumaThumbnail(thumbnail: LumaThumbnail) {
+        val (plane, rowStride) = lumaPlane()
+        thumbnail.compute(plane, rowStride, 0, 0, width, height)
+    }
+
+    /**
+     * NV21 copy of the frame backed by a [FrameBufferPool] buffer, which goes back to the pool on [close].
+     */
+    fun nv21(): ByteBuffer {
+        nv21?.let { return it }
+        val buffer = FrameBufferPool.acquire(width, height, ImageFormat.NV21).also { nv21Buffer = it }
+        return BitmapUtils.getNV21Buffer(imageProxy, buffer).also { nv21 = it }
+    }
+
+    fun close() {
+        if (closed) return
+        closed = true
+        if (!detached) imageProxy.close()
+        nv21Buffer?.let { FrameBufferPool.release(it, width, height, ImageFormat.NV21) }
+        nv21Buffer = null
+        nv21 = null
+        lumaBuffer?.let { FrameBufferPool.release(it, lumaWidth, lumaHeight, FrameBufferPool.FORMAT_GRAY_NV21) }
+        lumaBuffer = null
+        onClosed?.invoke()
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.scanner
+
+import android.graphics.Rect
+import android.graphics.RectF
+
+/**
+ * Geometry helpers to go from the preview as the user sees it to the unrotated camera buffer.
+ *
+ * "Upright" coordinates are those of the frame once rotated by its rotation degrees, i.e. what the
+ * former analyzers obtained with `BitmapUtils.rotateImage`. "Sensor" coordinates index the Y plane.
+ */
+object SensorRoi {
+
+    /**
+     * Vertical band of the upright frame shown by a view finder of [viewWidth] x [viewHeight], returned
+     * as (top, height). Same formula the guide crop has always used.
+     */
+    fun previewBand(uprightWidth: Int, uprightHeight: Int, viewWidth: Int, viewHeight: Int): Pair<Float, Float> {
+        val cropHeight = if (uprightWidth < viewWidth) {
+            // if preview area larger than analysing image
+            val koeff = uprightWidth.toFloat() / viewWidth.toFloat()
+            viewHeight.toFloat() * koeff
+        } else {
+            // if preview area smaller than analysing image
+            val prc = 100 - (viewWidth.toFloat() / (uprightWidth.toFloat() / 100f))
+            viewHeight + ((viewHeight.toFloat() / 100f) * prc)
+        }
+        val cropTop = (uprightHeight / 2) - (cropHeight / 2)
+        return cropTop to cropHeight
+    }
+
+    /**
+     * Maps [upright] back onto a [width] x [height] sensor buffer whose content has to be rotated by
+     * [rotation] degrees clockwise to be upright. The result is clamped to the buffer and aligned on
+     * even coordinates so that it can be handed to ML Kit as NV21, or null if nothing is left.
+     */
+    fun toSensor(upright: RectF, width: Int, height: Int, rotation: Int): Rect? {
+        val u0 = upright.left.toInt()
+        val u1 = upright.right.toInt()
+        val v0 = upright.top.toInt()
+        val v1 = upright.bottom.toInt()
+        val rect = when (rotation) {
+            90 -> Rect(v0, height - u1, v1, height - u0)
+            180 -> Rect(width - u1, height - v1, width - u0, height - v0)
+            270 -> Rect(width - v1, u0, width - v0, u1)
+            else -> Rect(u0, v0, u1, v1)
+        }
+        if (!rect.intersect(0, 0, width, height)) return null
+        rect.left = rect.left and 1.inv()
+        rect.top = rect.top and 1.inv()
+        rect.right = rect.left + (rect.width() and 1.inv())
+        rect.bottom = rect.top + (rect.height() and 1.inv())
+        return if (rect.isEmpty) null else rect
+    }
+}
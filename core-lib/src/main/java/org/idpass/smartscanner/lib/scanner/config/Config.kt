@@ -38,7 +38,21 @@ data class Config(
     val xGuide: Number? = null,
     val yGuide: Number? = null,
     val widthGuide: Int = 0,
-    val heightGuide: Int = 70
+    val heightGuide: Int = 70,
+    // true to recognize a frame while the next one is converted, frames are analyzed one at a time by default
+    val pipelinedAnalysis: Boolean? = null,
+    // MRZ modes: find the MRZ on each frame and only recognize that band, also without the guide
+    val locateMrz: Boolean? = null,
+    // true to keep successfully scanned frames on the device, in private storage, until an engine calibration
+    // used them or for at most FrameRecorder.MAX_AGE_MILLIS; off by default as frames show the document
+    val recordFrames: Boolean? = null,
+    // true to also time the former NV21 -> JPEG -> Bitmap conversion of every frame against the current one,
+    // logged by FrameMetrics; for measurements on device only, as it doubles the conversion work
+    val compareLegacyPath: Boolean? = null,
+    // path results: return the path at once and write the image in the background, see ResultImageWriter
+    val asyncResultImage: Boolean? = null,
+    // format, size cap, quality and grayscale of the result image
+    val imageOptions: ImageOptions? = null
 ) : Parcelable {
     companion object {
         const val CONFIG_PUB_KEY = "CONFIG_PUB_KEY"
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.scanner.config
+
+import android.os.Parcelable
+import kotlinx.parcelize.Parcelize
+
+/**
+ * Luma enhancement applied to the frame before text recognition (MRZ, OCR and NFC scan modes), set per
+ * mode through [ScannerOptions.enhanceOptions]. See [org.idpass.smartscanner.lib.utils.LumaEnhancer] for
+ * the meaning of each value; unset values leave the frame as is.
+ */
+@Parcelize
+data class EnhanceOptions(
+    val contrast: Float? = null,
+    val brightness: Float? = null,
+    val gamma: Float? = null
+) : Parcelable {
+    companion object {
+        val default = EnhanceOptions(
+            contrast = 1.0F,
+            brightness = 0F,
+            gamma = 1.0F
+        )
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.scanner.config
+
+import android.os.Parcelable
+import kotlinx.parcelize.Parcelize
+
+/**
+ * Encoding of the result image, the upright center square of the scanned frame. Empty values fall
+ * back to [default], an empty [quality] to the one of the scan mode.
+ */
+@Parcelize
+data class ImageOptions(
+    // one of ImageResultFormat, WebP is lossy
+    val format: String? = null,
+    // longest edge in pixels, larger images are downscaled before encoding, 0 to keep the frame size
+    val maxEdge: Int? = null,
+    // 0..100, modes default to 80 for files and 30 or 40 for Base64
+    val quality: Int? = null,
+    // drop the colors of camera frames, e.g. for MRZ and OCR evidence
+    val grayscale: Boolean? = null
+) : Parcelable {
+    companion object {
+        val default = ImageOptions(
+            format = ImageResultFormat.JPEG.value,
+            maxEdge = 0,
+            grayscale = false
+        )
+    }
+}
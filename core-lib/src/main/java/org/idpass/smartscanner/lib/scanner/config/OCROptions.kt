@@ -8,7 +8,9 @@ data class OCROptions(
     val regex: String? = ".*",
     val country: String? = "",
     val type: String? = "",
-    val analyzeStart: Long? = 0
+    val analyzeStart: Long? = 0,
+    // minimum FocusMeter score for a frame to be accepted, to calibrate per device model
+    val focusThreshold: Double? = null
 ) : Parcelable {
     companion object {
         val default = OCROptions(
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.scanner.config
+
+import android.os.Parcelable
+import kotlinx.parcelize.Parcelize
+
+/**
+ * Thresholds of the frame quality gate run before recognition, all on the 0..255 luma scale of the
+ * guide area (or the whole frame when no guide is shown). Empty values fall back to [default].
+ *
+ * Both the gate and the skipping of near duplicates are off unless turned on here, and neither applies
+ * with manual capture, where every frame the user captures is recognized.
+ */
+@Parcelize
+data class QualityOptions(
+    // run the quality gate, off by default
+    val enabled: Boolean? = null,
+    // minimum FocusMeter score, motion blur lowers it as well; the default is just above the sensor noise floor
+    val minFocus: Double? = null,
+    val minMeanLuma: Int? = null,
+    val maxMeanLuma: Int? = null,
+    // minimum spread between the 5th and 95th luma percentiles
+    val minContrast: Int? = null,
+    // maximum share of pixels at or above 250, i.e. glare
+    val maxSaturatedRatio: Float? = null,
+    // show the reason of dropped frames on the scanner screen
+    val showDebug: Boolean? = null,
+    // frames whose 32x24 thumbnail differs by at most this mean luma from the last recognized frame
+    // are skipped, 0 (the default) to recognize every frame; 2.5 suits a card held still
+    val maxDuplicateDifference: Float? = null,
+    // near duplicates skipped in a row before one is recognized anyway
+    val maxDuplicateSkips: Int? = null
+) : Parcelable {
+    companion object {
+        val default = QualityOptions(
+            enabled = false,
+            minFocus = 150.0,
+            minMeanLuma = 35,
+            maxMeanLuma = 225,
+            minContrast = 24,
+            maxSaturatedRatio = 0.08F,
+            showDebug = false,
+            maxDuplicateDifference = 0F,
+            maxDuplicateSkips = 4
+        )
+    }
+}
@@ -29,14 +29,25 @@ data class ScannerOptions(
     val language: String? = null,
     val nfcLocale: String? = null,
     val mrzFormat: String? = null,
+    // MRZ, OCR and barcode modes: AnalyzerType name of the recognizer (MLKIT, TESSERACT for text, ZXING for
+    // barcodes) or FASTEST for the one calibrated on this device model; the first available one by default
+    val engine: String? = null,
     val scannerSize: String? = null,
     val barcodeOptions: BarcodeOptions? = null,
     val captureOptions: CaptureOptions? = null,
     val nfcOptions: NFCOptions? = null,
     val qrCodeOptions: QRcodeOptions? = null,
     val ocrOptions: OCROptions? = null,
+    // Luma enhancement keyed by mode value (mrz, ocr, nfc-scan), frames are left as is for modes not listed
+    val enhanceOptions: Map<String, EnhanceOptions>? = null,
+    val qualityOptions: QualityOptions? = null,
     val sentryLogger: SentryLogger? = null,
 ) : Parcelable {
+    /**
+     * Enhancement set for [mode] in [enhanceOptions], null when there is none.
+     */
+    fun enhanceOptionsFor(mode: String?): EnhanceOptions? = enhanceOptions?.get(mode)
+
     companion object {
         val defaultForBarcode = ScannerOptions(
             mode = BARCODE.value,
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.scanner.engine
+
+import com.google.android.gms.tasks.Tasks
+import com.google.mlkit.vision.barcode.BarcodeScannerOptions
+import com.google.mlkit.vision.barcode.BarcodeScanning
+import org.idpass.smartscanner.lib.scanner.AnalyzerType
+import org.idpass.smartscanner.lib.scanner.LumaImage
+import org.idpass.smartscanner.lib.scanner.RecognizedLine
+import org.idpass.smartscanner.lib.scanner.RecognizerEngine
+
+/**
+ * ML Kit barcode scanning for the given ML Kit `Barcode.FORMAT_*` [formats]. Each barcode is one line
+ * holding its raw value and bytes.
+ */
+class MLKitBarcodeEngine(formats: List<Int>) : RecognizerEngine {
+
+    override val type = AnalyzerType.MLKIT
+
+    private val scanner = BarcodeScanning.getClient(
+        BarcodeScannerOptions.Builder()
+            .setBarcodeFormats(formats.fold(0) { mask, format -> mask or format })
+            .build()
+    )
+
+    override fun recognize(image: LumaImage): List<RecognizedLine> {
+        val barcodes = Tasks.await(scanner.process(image.toInputImage()))
+        return barcodes.map { barcode ->
+            RecognizedLine(
+                text = barcode.rawValue ?: barcode.displayValue.orEmpty(),
+                box = barcode.boundingBox,
+                corners = RecognizedLine.cornersOf(barcode.cornerPoints, barcode.boundingBox),
+                format = barcode.format,
+                rawBytes = barcode.rawBytes
+            )
+        }
+    }
+
+    override fun close() {
+        scanner.close()
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.scanner.engine
+
+import com.google.android.gms.tasks.Tasks
+import com.google.mlkit.vision.common.InputImage
+import com.google.mlkit.vision.text.TextRecognition
+import com.google.mlkit.vision.text.latin.TextRecognizerOptions
+import org.idpass.smartscanner.lib.scanner.AnalyzerType
+import org.idpass.smartscanner.lib.scanner.LumaImage
+import org.idpass.smartscanner.lib.scanner.RecognizedLine
+import org.idpass.smartscanner.lib.scanner.RecognizerEngine
+
+/**
+ * ML Kit Latin text recognition. Lines come with their elements as words, ML Kit gives no confidence.
+ */
+class MLKitTextEngine : RecognizerEngine {
+
+    override val type = AnalyzerType.MLKIT
+
+    private val recognizer = TextRecognition.getClient(TextRecognizerOptions.DEFAULT_OPTIONS)
+
+    override fun recognize(image: LumaImage): List<RecognizedLine> {
+        val text = Tasks.await(recognizer.process(image.toInputImage()))
+        return text.textBlocks.flatMap { block ->
+            block.lines.map { line ->
+                RecognizedLine(
+                    text = line.text,
+                    box = line.boundingBox,
+                    corners = RecognizedLine.cornersOf(line.cornerPoints, line.boundingBox),
+                    words = line.elements.map { element ->
+                        RecognizedLine(
+                            text = element.text,
+                            box = element.boundingBox,
+                            corners = RecognizedLine.cornersOf(element.cornerPoints, element.boundingBox)
+                        )
+                    }
+                )
+            }
+        }
+    }
+
+    override fun close() {
+        recognizer.close()
+    }
+}
+
+/**
+ * Wraps the image without copying it, its chroma is neutral so ML Kit reads it as a greyscale NV21 frame.
+ */
+internal fun LumaImage.toInputImage(): InputImage =
+    InputImage.fromByteArray(data, width, height, rotation, InputImage.IMAGE_FORMAT_NV21)
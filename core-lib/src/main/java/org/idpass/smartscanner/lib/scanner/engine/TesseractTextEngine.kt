@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.scanner.engine
+
+import android.content.Context
+import android.util.Log
+import com.googlecode.tesseract.android.TessBaseAPI
+import org.idpass.smartscanner.lib.SmartScannerActivity
+import org.idpass.smartscanner.lib.scanner.AnalyzerType
+import org.idpass.smartscanner.lib.scanner.LumaImage
+import org.idpass.smartscanner.lib.scanner.RecognizedLine
+import org.idpass.smartscanner.lib.scanner.RecognizerEngine
+import org.idpass.smartscanner.lib.utils.LumaBinarizer
+import java.io.File
+import java.io.IOException
+
+/**
+ * Offline text recognition with Tesseract and a model bundled in the assets under `tessdata`, by default
+ * the OCR-B one used for MRZ. Only the characters of [alphabet] are recognized when given.
+ *
+ * The engine is created on the first [recognize] and kept until [close]. It works on a binarized upright
+ * copy of the image and reports lines with their confidence.
+ */
+class TesseractTextEngine(
+    private val context: Context,
+    private val language: String = MODEL_OCRB,
+    private val alphabet: String? = null
+) : RecognizerEngine {
+
+    companion object {
+        const val MODEL_OCRB = "ocrb_int"
+
+        /**
+         * Whether the model of [language] is in the assets.
+         */
+        fun isAvailable(context: Context, language: String = MODEL_OCRB): Boolean {
+            return context.assets.list("tessdata")?.contains("$language.traineddata") == true
+        }
+    }
+
+    override val type = AnalyzerType.TESSERACT
+
+    private val binarizer = LumaBinarizer()
+    private var api: TessBaseAPI? = null
+    private var closed = false
+
+    @Synchronized
+    override fun recognize(image: LumaImage): List<RecognizedLine> {
+        val tesseract = api ?: open()
+        binarizer.binarize(image.data, image.width, image.height, image.rotation)
+        tesseract.setImage(binarizer.pixels, binarizer.width, binarizer.height, 1, binarizer.width)
+        // Runs the recognition, the iterator then walks its result
+        tesseract.utF8Text
+        val lines = ArrayList<RecognizedLine>()
+        val iterator = tesseract.resultIterator
+        if (iterator != null) {
+            iterator.begin()
+            do {
+                val text = iterator.getUTF8Text(TessBaseAPI.PageIteratorLevel.RIL_TEXTLINE) ?: continue
+                lines.add(
+                    RecognizedLine(
+                        text = text.trim(),
+                        box = iterator.getBoundingRect(TessBaseAPI.PageIteratorLevel.RIL_TEXTLINE),
+                        confidence = iterator.confidence(TessBaseAPI.PageIteratorLevel.RIL_TEXTLINE) / 100F
+                    )
+                )
+            } while (iterator.next(TessBaseAPI.PageIteratorLevel.RIL_TEXTLINE))
+            iterator.delete()
+        }
+        tesseract.clear()
+        return lines
+    }
+
+    private fun open(): TessBaseAPI {
+        if (closed) throw IllegalStateException("Tesseract engine closed")
+        val dataPath = installModel()
+        val tesseract = TessBaseAPI()
+        if (!tesseract.init(dataPath.absolutePath, language)) {
+            tesseract.end()
+            throw IOException("Cannot load Tesseract model $language")
+        }
+        alphabet?.let { tesseract.setVariable(TessBaseAPI.VAR_CHAR_WHITELIST, it) }
+        tesseract.pageSegMode = TessBaseAPI.PageSegMode.PSM_SINGLE_BLOCK
+        Log.d("${SmartScannerActivity.TAG}/SmartScanner", "Tesseract: $language loaded")
+        api = tesseract
+        return tesseract
+    }
+
+    // Tesseract reads its model from a directory, the asset is copied once per app install or update
+    private fun installModel(): File {
+        val dataPath = File(context.filesDir, "tesseract")
+        val model = File(dataPath, "tessdata/$language.traineddata")
+        val installed = context.packageManager.getPackageInfo(context.packageName, 0).lastUpdateTime
+        if (model.exists() && model.lastModified() >= installed) return dataPath
+        model.parentFile?.mkdirs()
+        val part = File(model.path + ".part")
+        context.assets.open("tessdata/$language.traineddata").use { input ->
+            part.outputStream().use { input.copyTo(it) }
+        }
+        if (!part.renameTo(model)) throw IOException("Cannot move ${part.name}")
+        return dataPath
+    }
+
+    @Synchronized
+    override fun close() {
+        closed = true
+        api?.end()
+        api = null
+    }
+}
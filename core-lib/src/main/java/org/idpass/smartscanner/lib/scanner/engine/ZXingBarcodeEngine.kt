@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.scanner.engine
+
+import android.graphics.Rect
+import com.google.mlkit.vision.barcode.common.Barcode
+import com.google.zxing.BarcodeFormat
+import com.google.zxing.BinaryBitmap
+import com.google.zxing.DecodeHintType
+import com.google.zxing.MultiFormatReader
+import com.google.zxing.NotFoundException
+import com.google.zxing.PlanarYUVLuminanceSource
+import com.google.zxing.ResultMetadataType
+import com.google.zxing.common.HybridBinarizer
+import org.idpass.smartscanner.lib.scanner.AnalyzerType
+import org.idpass.smartscanner.lib.scanner.LumaImage
+import org.idpass.smartscanner.lib.scanner.RecognizedLine
+import org.idpass.smartscanner.lib.scanner.RecognizerEngine
+import org.idpass.smartscanner.lib.utils.LumaRotation
+
+/**
+ * ZXing barcode decoding, without Play services, for the given ML Kit `Barcode.FORMAT_*` [formats]. The
+ * image is made upright first since ZXing only reads one dimensional codes along rows. At most one
+ * barcode is found per image. Its bytes are those of the byte mode segments, like ML Kit returns them for
+ * binary QR codes, and null when it has none.
+ */
+class ZXingBarcodeEngine(formats: List<Int>) : RecognizerEngine {
+
+    companion object {
+        private val FORMATS = mapOf(
+            Barcode.FORMAT_AZTEC to BarcodeFormat.AZTEC,
+            Barcode.FORMAT_CODABAR to BarcodeFormat.CODABAR,
+            Barcode.FORMAT_CODE_39 to BarcodeFormat.CODE_39,
+            Barcode.FORMAT_CODE_93 to BarcodeFormat.CODE_93,
+            Barcode.FORMAT_CODE_128 to BarcodeFormat.CODE_128,
+            Barcode.FORMAT_DATA_MATRIX to BarcodeFormat.DATA_MATRIX,
+            Barcode.FORMAT_EAN_8 to BarcodeFormat.EAN_8,
+            Barcode.FORMAT_EAN_13 to BarcodeFormat.EAN_13,
+            Barcode.FORMAT_ITF to BarcodeFormat.ITF,
+            Barcode.FORMAT_PDF417 to BarcodeFormat.PDF_417,
+            Barcode.FORMAT_QR_CODE to BarcodeFormat.QR_CODE,
+            Barcode.FORMAT_UPC_A to BarcodeFormat.UPC_A,
+            Barcode.FORMAT_UPC_E to BarcodeFormat.UPC_E
+        )
+    }
+
+    override val type = AnalyzerType.ZXING
+
+    private val reader = MultiFormatReader().apply {
+        val possible = if (formats.contains(Barcode.FORMAT_ALL_FORMATS)) {
+            FORMATS.values.toList()
+        } else {
+            formats.mapNotNull { FORMATS[it] }
+        }
+        setHints(mapOf(DecodeHintType.POSSIBLE_FORMATS to possible, DecodeHintType.TRY_HARDER to true))
+    }
+    private var upright = ByteArray(0)
+
+    override fun recognize(image: LumaImage): List<RecognizedLine> {
+        val size = image.width * image.height
+        if (upright.size < size) upright = ByteArray(size)
+        LumaRotation.upright(image.data, image.width, image.height, image.rotation, upright)
+        val rotated = image.rotation == 90 || image.rotation == 270
+        val width = if (rotated) image.height else image.width
+        val height = if (rotated) image.width else image.height
+        val source = PlanarYUVLuminanceSource(upright, width, height, 0, 0, width, height, false)
+        val result = try {
+            reader.decodeWithState(BinaryBitmap(HybridBinarizer(source)))
+        } catch (e: NotFoundException) {
+            return emptyList()
+        } finally {
+            reader.reset()
+        }
+        val points = result.resultPoints.orEmpty().filterNotNull()
+        val box = if (points.isEmpty()) null else Rect(
+            points.minOf { it.x }.toInt(),
+            points.minOf { it.y }.toInt(),
+            points.maxOf { it.x }.toInt(),
+            points.maxOf { it.y }.toInt()
+        )
+        val format = FORMATS.entries.firstOrNull { it.value == result.barcodeFormat }?.key
+        @Suppress("UNCHECKED_CAST")
+        val segments = result.resultMetadata?.get(ResultMetadataType.BYTE_SEGMENTS) as? List<ByteArray>
+        val rawBytes = segments?.takeIf { it.isNotEmpty() }?.reduce { bytes, segment -> bytes + segment }
+        return listOf(RecognizedLine(text = result.text, box = box, format = format, rawBytes = rawBytes))
+    }
+
+    override fun close() {}
+}
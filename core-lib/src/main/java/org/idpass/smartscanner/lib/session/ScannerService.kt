@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.session
+
+import android.app.Activity
+import android.app.Service
+import android.content.Intent
+import android.net.Uri
+import android.os.Build
+import android.os.Bundle
+import android.os.Handler
+import android.os.IBinder
+import android.os.Looper
+import android.os.Message
+import android.os.Messenger
+import android.os.RemoteException
+import android.util.Log
+import androidx.camera.lifecycle.ProcessCameraProvider
+import org.idpass.smartscanner.lib.SmartScannerActivity
+import org.idpass.smartscanner.lib.scanner.config.ScannerOptions
+
+/**
+ * Bound scanning service keeping a [ScannerSession] warm while a host app scans document after document.
+ * Hosts bind with [ACTION], send [MSG_OPEN] with the [Messenger] receiving the results, then one [MSG_SCAN]
+ * per document carrying the same extras, or intent action in [KEY_ACTION], as a `SmartScannerActivity`
+ * launch. Every scan streams back one [MSG_RESULT]: the result code in `arg1` and the result extras in
+ * `data`, exactly as `onActivityResult` would have received them.
+ *
+ * Binding requires the signature permission named by [permission], so only hosts signed with the scanner
+ * app's key get in. A result goes to the `replyTo` of its [MSG_SCAN], or to the one of the [MSG_OPEN] sent
+ * by the same app, and only the app that sent the scan is granted its result file.
+ *
+ * The warm state is dropped after [KEY_IDLE_TIMEOUT] milliseconds without a scan and created again by
+ * the next one; the session itself ends with [MSG_CLOSE] or when the host unbinds.
+ */
+class ScannerService : Service() {
+
+    companion object {
+        const val ACTION = "org.idpass.smartscanner.SESSION"
+        const val MSG_OPEN = 1
+        const val MSG_SCAN = 2
+        const val MSG_RESULT = 3
+        const val MSG_CLOSE = 4
+        const val KEY_ACTION = "session_action"
+        const val KEY_IDLE_TIMEOUT = "session_idle_timeout"
+        const val DEFAULT_IDLE_TIMEOUT = 5 * 60 * 1000L
+        private const val UNKNOWN_UID = -1
+
+        /**
+         * Permission hosts declare with `uses-permission` to bind to the service of the app [packageName].
+         */
+        fun permission(packageName: String) = "$packageName.permission.SCANNER_SESSION"
+    }
+
+    /**
+     * Who a result is for: the [replyTo] of a host and the [packages] of its uid.
+     */
+    private class Client(val replyTo: Messenger, val uid: Int, val packages: Array<String>)
+
+    private val handler = Handler(Looper.getMainLooper()) { message -> handle(message) }
+    private val messenger = Messenger(handler)
+    private val idleRelease = Runnable { ScannerSession.release() }
+    // the host of the last MSG_OPEN, replied to when its scans carry no messenger
+    private var opener: Client? = null
+    // the host of the running scan
+    private var scanClient: Client? = null
+    private var idleTimeout = DEFAULT_IDLE_TIMEOUT
+
+    override fun onCreate() {
+        super.onCreate()
+        ScannerSession.open()
+        ScannerSession.onResult = ::onScanResult
+        // CameraX initialization is paid once for the session here, not by the first scan
+        ProcessCameraProvider.getInstance(this)
+    }
+
+    override fun onBind(intent: Intent): IBinder = messenger.binder
+
+    override fun onDestroy() {
+        handler.removeCallbacks(idleRelease)
+        ScannerSession.close()
+        opener = null
+        scanClient = null
+        super.onDestroy()
+    }
+
+    private fun handle(message: Message): Boolean {
+        when (message.what) {
+            MSG_OPEN -> {
+                opener = clientOf(message)
+                idleTimeout = message.data.getLong(KEY_IDLE_TIMEOUT, DEFAULT_IDLE_TIMEOUT)
+                ScannerSession.open()
+                scheduleRelease()
+            }
+            MSG_SCAN -> scan(message)
+            MSG_CLOSE -> {
+                handler.removeCallbacks(idleRelease)
+                ScannerSession.release()
+            }
+            else -> return false
+        }
+        return true
+    }
+
+    /**
+     * Host of [message], or null when neither it nor the last [MSG_OPEN] of its app has a messenger.
+     */
+    private fun clientOf(message: Message): Client? {
+        val uid = if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP_MR1) message.sendingUid else UNKNOWN_UID
+        val replyTo = message.replyTo ?: opener?.takeIf { it.uid == uid }?.replyTo ?: return null
+        val packages = if (uid != UNKNOWN_UID) packageManager.getPackagesForUid(uid).orEmpty() else emptyArray()
+        return Client(replyTo, uid, packages)
+    }
+
+    private fun scan(message: Message) {
+        val client = clientOf(message)
+        if (client == null) {
+            Log.d("${SmartScannerActivity.TAG}/SmartScanner", "Session: scan without a messenger to reply to")
+            return
+        }
+        if (!ScannerSession.startScan()) {
+            Log.d("${SmartScannerActivity.TAG}/SmartScanner", "Session: a scan is already running")
+            send(client, Activity.RESULT_CANCELED, null)
+            return
+        }
+        scanClient = client
+        handler.removeCallbacks(idleRelease)
+        val extras = message.data
+        extras.classLoader = ScannerOptions::class.java.classLoader
+        val scan = Intent(this, ScannerSessionActivity::class.java)
+            .addFlags(Intent.FLAG_ACTIVITY_NEW_TASK)
+            .putExtras(extras)
+        startActivity(scan)
+    }
+
+    private fun onScanResult(resultCode: Int, data: Intent?) {
+        val client = scanClient
+        scanClient = null
+        scheduleRelease()
+        if (client == null) return
+        // Result files are shared with the host that asked for the scan, like with an activity result
+        val uri = data?.getParcelableExtra<Uri>(SmartScannerActivity.SCANNER_RESULT_URI)
+        if (uri != null) {
+            client.packages.forEach { grantUriPermission(it, uri, Intent.FLAG_GRANT_READ_URI_PERMISSION) }
+        }
+        send(client, resultCode, data?.extras)
+    }
+
+    private fun send(client: Client, resultCode: Int, extras: Bundle?) {
+        val result = Message.obtain(null, MSG_RESULT, resultCode, 0)
+        result.data = extras ?: Bundle()
+        try {
+            client.replyTo.send(result)
+        } catch (e: RemoteException) {
+            Log.d("${SmartScannerActivity.TAG}/SmartScanner", "Session: host is gone, $e")
+            if (opener?.replyTo == client.replyTo) opener = null
+        }
+    }
+
+    private fun scheduleRelease() {
+        handler.removeCallbacks(idleRelease)
+        if (idleTimeout > 0) handler.postDelayed(idleRelease, idleTimeout)
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.session
+
+import android.content.Intent
+import android.util.Log
+import org.idpass.lite.IDPassReader
+import org.idpass.smartscanner.lib.SmartScannerActivity
+import org.idpass.smartscanner.lib.idpasslite.IDPassManager
+import org.idpass.smartscanner.lib.scanner.RecognizerEngine
+
+/**
+ * Warm state kept between scans while a [ScannerService] session is open: recognizer engines and the
+ * ID PASS Lite reader outlive the scanner activity instead of being created again for every scan.
+ * Without an open session everything is created per scan, as before.
+ */
+object ScannerSession {
+
+    @Volatile
+    var isOpen = false
+        private set
+
+    /**
+     * Receives the result of every scan of the session, on the main thread.
+     */
+    @Volatile
+    internal var onResult: ((Int, Intent?) -> Unit)? = null
+
+    private val engines = mutableMapOf<String, Shared>()
+    private var idPassReader: IDPassReader? = null
+    private var scanning = false
+    private var releasePending = false
+
+    @Synchronized
+    internal fun open() {
+        isOpen = true
+        releasePending = false
+    }
+
+    /**
+     * Engine cached under [key] while the session is open, else a new one from [create]. Cached engines
+     * ignore [RecognizerEngine.close], they are closed by [release].
+     */
+    @Synchronized
+    fun engine(key: String, create: () -> RecognizerEngine): RecognizerEngine {
+        if (!isOpen) return create()
+        return engines.getOrPut(key) { Shared(create()) }
+    }
+
+    /**
+     * ID PASS Lite reader of the session, generating its keys once rather than for every card.
+     */
+    @Synchronized
+    fun idPassReader(): IDPassReader {
+        if (!isOpen) return IDPassManager.getIDPassReader()
+        return idPassReader ?: IDPassManager.getIDPassReader().also { idPassReader = it }
+    }
+
+    @Synchronized
+    internal fun startScan(): Boolean {
+        if (scanning) return false
+        scanning = true
+        return true
+    }
+
+    internal fun deliver(resultCode: Int, data: Intent?) {
+        synchronized(this) {
+            scanning = false
+            if (releasePending) release()
+        }
+        onResult?.invoke(resultCode, data)
+    }
+
+    /**
+     * Drops the warm state, it is created again by the next scan of an open session. Engines still in use
+     * by a running scan are released once it has delivered its result.
+     */
+    @Synchronized
+    internal fun release() {
+        if (scanning) {
+            releasePending = true
+            return
+        }
+        releasePending = false
+        Log.d("${SmartScannerActivity.TAG}/SmartScanner", "Session: releasing ${engines.keys}")
+        engines.values.forEach { it.engine.close() }
+        engines.clear()
+        idPassReader = null
+    }
+
+    @Synchronized
+    internal fun close() {
+        isOpen = false
+        onResult = null
+        release()
+    }
+
+    private class Shared(val engine: RecognizerEngine) : RecognizerEngine by engine {
+        override fun close() {}
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.session
+
+import android.app.Activity
+import android.content.Intent
+import android.os.Bundle
+import org.idpass.smartscanner.lib.SmartScannerActivity
+import org.idpass.smartscanner.lib.scanner.config.Config
+
+/**
+ * Invisible activity starting one scan of a [ScannerService] session, so that `SmartScannerActivity`
+ * returns its result through `onActivityResult` exactly as for a host app, and handing that result to
+ * the [ScannerSession].
+ */
+class ScannerSessionActivity : Activity() {
+
+    private var delivered = false
+
+    override fun onCreate(savedInstanceState: Bundle?) {
+        super.onCreate(savedInstanceState)
+        // Recreated while the scan runs: its result still comes back here
+        if (savedInstanceState != null) return
+        val scan = Intent(this, SmartScannerActivity::class.java)
+        intent.extras?.let { scan.putExtras(it) }
+        scan.removeExtra(ScannerService.KEY_ACTION)
+        intent.getStringExtra(ScannerService.KEY_ACTION)?.let { scan.action = it }
+        startActivityForResult(scan, Config.OP_SCANNER)
+    }
+
+    override fun onActivityResult(requestCode: Int, resultCode: Int, data: Intent?) {
+        super.onActivityResult(requestCode, resultCode, data)
+        if (requestCode != Config.OP_SCANNER) return
+        delivered = true
+        ScannerSession.deliver(resultCode, data)
+        finish()
+    }
+
+    override fun onDestroy() {
+        // Never leave the session waiting for a scan that is gone
+        if (isFinishing && !delivered) ScannerSession.deliver(RESULT_CANCELED, null)
+        super.onDestroy()
+    }
+}
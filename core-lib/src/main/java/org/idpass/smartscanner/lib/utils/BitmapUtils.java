@@ -60,9 +60,15 @@ public class BitmapUtils {
      */
     @Nullable
     public static Bitmap getBitmap(ByteBuffer data, FrameMetadata metadata) {
-        data.rewind();
-        byte[] imageInBuffer = new byte[data.limit()];
-        data.get(imageInBuffer, 0, imageInBuffer.length);
+        byte[] imageInBuffer;
+        if (data.hasArray() && data.arrayOffset() == 0) {
+            // Compress straight from the backing array, e.g. a pooled frame buffer
+            imageInBuffer = data.array();
+        } else {
+            data.rewind();
+            imageInBuffer = new byte[data.limit()];
+            data.get(imageInBuffer, 0, imageInBuffer.length);
+        }
         try {
             YuvImage image =
                     new YuvImage(
@@ -94,8 +100,28 @@ public class BitmapUtils {
                         .setRotation(image.getImageInfo().getRotationDegrees())
                         .build();
 
-        ByteBuffer nv21Buffer = yuv420ThreePlanesToNV21(image.getImage().getPlanes(), image.getWidth(), image.getHeight());
-        return getBitmap(nv21Buffer, frameMetadata);
+        return getBitmap(getNV21Buffer(image), frameMetadata);
+    }
+
+    /**
+     * Converts a YUV_420_888 image from CameraX API to a NV21 bytebuffer, without touching the
+     * position of the image plane buffers so the image can still be handed to ML Kit.
+     */
+    @RequiresApi(VERSION_CODES.KITKAT)
+    @ExperimentalGetImage
+    public static ByteBuffer getNV21Buffer(ImageProxy image) {
+        int imageSize = image.getWidth() * image.getHeight();
+        return getNV21Buffer(image, new byte[imageSize + 2 * (imageSize / 4)]);
+    }
+
+    /**
+     * Converts a YUV_420_888 image from CameraX API into the given NV21 array, typically checked
+     * out from {@link FrameBufferPool}.
+     */
+    @RequiresApi(VERSION_CODES.KITKAT)
+    @ExperimentalGetImage
+    public static ByteBuffer getNV21Buffer(ImageProxy image, byte[] out) {
+        return yuv420ThreePlanesToNV21(image.getImage().getPlanes(), image.getWidth(), image.getHeight(), out);
     }
 
     /**
@@ -210,22 +236,21 @@ public class BitmapUtils {
      */
     @RequiresApi(VERSION_CODES.KITKAT)
     private static ByteBuffer yuv420ThreePlanesToNV21(
-            Plane[] yuv420888planes, int width, int height) {
+            Plane[] yuv420888planes, int width, int height, byte[] out) {
         int imageSize = width * height;
-        byte[] out = new byte[imageSize + 2 * (imageSize / 4)];
 
         if (areUVPlanesNV21(yuv420888planes, width, height)) {
             // Copy the Y values.
-            yuv420888planes[0].getBuffer().get(out, 0, imageSize);
+            yuv420888planes[0].getBuffer().duplicate().get(out, 0, imageSize);
 
-            ByteBuffer uBuffer = yuv420888planes[1].getBuffer();
-            ByteBuffer vBuffer = yuv420888planes[2].getBuffer();
+            ByteBuffer uBuffer = yuv420888planes[1].getBuffer().duplicate();
+            ByteBuffer vBuffer = yuv420888planes[2].getBuffer().duplicate();
             // Get the first V value from the V buffer, since the U buffer does not contain it.
             vBuffer.get(out, imageSize, 1);
             // Copy the first U value and the remaining VU values from the U buffer.
             uBuffer.get(out, imageSize + 1, 2 * imageSize / 4 - 1);
         } else {
-            // Fallback to copying the UV values one by one, which is slower but also works.
+            // Fallback to unpacking the planes row by row, which is slower but also works.
             // Unpack Y.
             unpackPlane(yuv420888planes[0], width, height, out, 0, 1);
             // Unpack U.
@@ -276,12 +301,29 @@ public class BitmapUtils {
     @TargetApi(VERSION_CODES.KITKAT)
     private static void unpackPlane(
             Plane plane, int width, int height, byte[] out, int offset, int pixelStride) {
-        ByteBuffer buffer = plane.getBuffer();
+        unpackPlane(
+                plane.getBuffer(), plane.getRowStride(), plane.getPixelStride(),
+                width, height, out, offset, pixelStride);
+    }
+
+    /**
+     * Unpack a plane given as a buffer, row stride and pixel stride into a byte array.
+     *
+     * <p>Rows are read with bulk {@link ByteBuffer#get(byte[], int, int)} calls: straight into 'out'
+     * when both the plane and the output are packed, otherwise into a reusable row scratch array
+     * that is then spread over the output.
+     */
+    static void unpackPlane(
+            ByteBuffer planeBuffer, int rowStride, int planePixelStride,
+            int width, int height, byte[] out, int offset, int pixelStride) {
+        // Work on a duplicate so the position of the plane buffer is left untouched.
+        ByteBuffer buffer = planeBuffer.duplicate();
         buffer.rewind();
+        int limit = buffer.limit();
 
         // Compute the size of the current plane.
         // We assume that it has the aspect ratio as the original image.
-        int numRow = (buffer.limit() + plane.getRowStride() - 1) / plane.getRowStride();
+        int numRow = (limit + rowStride - 1) / rowStride;
         if (numRow == 0) {
             return;
         }
@@ -291,15 +333,46 @@ public class BitmapUtils {
         // Extract the data in the output buffer.
         int outputPos = offset;
         int rowStart = 0;
+        if (planePixelStride == 1 && pixelStride == 1) {
+            for (int row = 0; row < numRow; row++) {
+                buffer.position(rowStart);
+                buffer.get(out, outputPos, numCol);
+                outputPos += numCol;
+                rowStart += rowStride;
+            }
+            return;
+        }
+
+        // The last row of a plane is not padded, so only read the bytes the row actually spans.
+        int rowLength = (numCol - 1) * planePixelStride + 1;
+        byte[] rowData = rowScratch(rowLength);
         for (int row = 0; row < numRow; row++) {
-            int inputPos = rowStart;
-            for (int col = 0; col < numCol; col++) {
-                out[outputPos] = buffer.get(inputPos);
-                outputPos += pixelStride;
-                inputPos += plane.getPixelStride();
+            buffer.position(rowStart);
+            buffer.get(rowData, 0, Math.min(rowLength, limit - rowStart));
+            if (planePixelStride == 2 && pixelStride == 2) {
+                for (int inputPos = 0; inputPos < rowLength; inputPos += 2) {
+                    out[outputPos] = rowData[inputPos];
+                    outputPos += 2;
+                }
+            } else {
+                for (int inputPos = 0; inputPos < rowLength; inputPos += planePixelStride) {
+                    out[outputPos] = rowData[inputPos];
+                    outputPos += pixelStride;
+                }
             }
-            rowStart += plane.getRowStride();
+            rowStart += rowStride;
+        }
+    }
+
+    private static final ThreadLocal<byte[]> ROW_SCRATCH = new ThreadLocal<>();
+
+    private static byte[] rowScratch(int length) {
+        byte[] scratch = ROW_SCRATCH.get();
+        if (scratch == null || scratch.length < length) {
+            scratch = new byte[length];
+            ROW_SCRATCH.set(scratch);
         }
+        return scratch;
     }
 
 
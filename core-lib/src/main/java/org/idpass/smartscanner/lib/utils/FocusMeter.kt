@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.utils
+
+import java.nio.ByteBuffer
+
+/**
+ * Sharpness score of a luma (Y) plane: variance of the 4-neighbour Laplacian, sampled every [step] pixels.
+ *
+ * Everything is integer arithmetic over three reusable row buffers, so a meter allocates nothing once warm.
+ * Scores are not normalized: sensor noise alone gives about a hundred, a sharp document page from a few
+ * thousand to tens of thousands depending on its contrast, and a defocused one a few hundred at most.
+ * The exact range depends on the camera, which is why the threshold is configurable.
+ * Not thread safe, use one meter per analyzer.
+ */
+class FocusMeter(private val step: Int = 2) {
+
+    companion object {
+        /**
+         * Separates text still readable by the recognizers (defocus up to about one pixel) from blurred
+         * frames, on low as well as high contrast pages.
+         */
+        const val DEFAULT_THRESHOLD = 300.0
+    }
+
+    private var above = ByteArray(0)
+    private var center = ByteArray(0)
+    private var below = ByteArray(0)
+
+    /**
+     * Scores the [width] x [height] region at ([left], [top]) of a Y plane with the given [rowStride].
+     */
+    fun score(plane: ByteBuffer, rowStride: Int, left: Int, top: Int, width: Int, height: Int): Double {
+        if (width <= 2 * step || height <= 2 * step) return 0.0
+        if (center.size < width) {
+            above = ByteArray(width)
+            center = ByteArray(width)
+            below = ByteArray(width)
+        }
+        val buffer = plane.duplicate()
+        readRow(buffer, rowStride, left, top, width, above)
+        readRow(buffer, rowStride, left, top + step, width, center)
+
+        var sum = 0L
+        var sumSquares = 0L
+        var count = 0L
+        var y = top + step
+        while (y + step < top + height) {
+            readRow(buffer, rowStride, left, y + step, width, below)
+            var x = step
+            while (x + step < width) {
+                val laplacian = 4 * (center[x].toInt() and 0xFF) -
+                    (center[x - step].toInt() and 0xFF) -
+                    (center[x + step].toInt() and 0xFF) -
+                    (above[x].toInt() and 0xFF) -
+                    (below[x].toInt() and 0xFF)
+                sum += laplacian
+                sumSquares += laplacian * laplacian
+                count++
+                x += step
+            }
+            // Slide the three row window down by one step
+            val recycled = above
+            above = center
+            center = below
+            below = recycled
+            y += step
+        }
+        if (count == 0L) return 0.0
+        val mean = sum.toDouble() / count
+        return sumSquares.toDouble() / count - mean * mean
+    }
+
+    private fun readRow(buffer: ByteBuffer, rowStride: Int, left: Int, row: Int, width: Int, out: ByteArray) {
+        buffer.position(row * rowStride + left)
+        buffer.get(out, 0, width)
+    }
+}
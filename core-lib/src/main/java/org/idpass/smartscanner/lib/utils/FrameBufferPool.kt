@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.utils
+
+import android.graphics.ImageFormat
+import org.idpass.smartscanner.lib.scanner.FrameMetrics
+import java.util.ArrayDeque
+
+/**
+ * Pool of frame pixel buffers keyed by resolution and format.
+ *
+ * A buffer is checked out with [acquire] for the duration of a frame and handed back with
+ * [release] once the frame is closed, so steady-state scanning at a fixed resolution
+ * does not allocate any pixel storage.
+ *
+ * Region-of-interest buffers change size from frame to frame, so the number of keys is not bounded.
+ * Idle buffers are therefore capped at [MAX_IDLE_BYTES] in total, evicting the least recently used
+ * resolution first. Hits, misses and evictions are counted in [FrameMetrics].
+ */
+object FrameBufferPool {
+
+    private const val MAX_IDLE_PER_KEY = 3
+    private const val MAX_IDLE_BYTES = 8L * 1024 * 1024
+
+    const val METRIC_HIT = "pool/hit"
+    const val METRIC_MISS = "pool/miss"
+    const val METRIC_EVICT = "pool/evict"
+
+    /**
+     * NV21 layout whose chroma half is neutral grey (128). Only the luma part is ever written by its
+     * users, so buffers of this format stay greyscale across frames.
+     */
+    const val FORMAT_GRAY_NV21 = 0x4E563247
+
+    private data class Key(val width: Int, val height: Int, val format: Int)
+
+    // Access ordered, so iteration starts at the least recently used resolution
+    private val pools = LinkedHashMap<Key, ArrayDeque<ByteArray>>(16, 0.75f, true)
+    private var idleBytes = 0L
+
+    @JvmStatic
+    fun acquire(width: Int, height: Int, format: Int = ImageFormat.NV21): ByteArray {
+        val buffer = synchronized(pools) {
+            pools[Key(width, height, format)]?.pollFirst()?.also { idleBytes -= it.size }
+        }
+        return if (buffer != null) {
+            FrameMetrics.increment(METRIC_HIT, logged = false)
+            buffer
+        } else {
+            FrameMetrics.increment(METRIC_MISS)
+            ByteArray(bufferSize(width, height, format)).also {
+                if (format == FORMAT_GRAY_NV21) it.fill(128.toByte(), width * height)
+            }
+        }
+    }
+
+    @JvmStatic
+    fun release(buffer: ByteArray, width: Int, height: Int, format: Int = ImageFormat.NV21) {
+        if (buffer.size != bufferSize(width, height, format)) return
+        synchronized(pools) {
+            val key = Key(width, height, format)
+            val pool = pools.getOrPut(key) { ArrayDeque() }
+            if (pool.size >= MAX_IDLE_PER_KEY) return
+            pool.addFirst(buffer)
+            idleBytes += buffer.size
+            evict(key)
+        }
+    }
+
+    /**
+     * Drops idle buffers of the least recently used resolutions until the pool fits [MAX_IDLE_BYTES].
+     * The buffers of [keep], the resolution just released, are left alone even if they alone exceed it.
+     */
+    private fun evict(keep: Key) {
+        val iterator = pools.entries.iterator()
+        while (idleBytes > MAX_IDLE_BYTES && iterator.hasNext()) {
+            val (key, pool) = iterator.next()
+            if (key == keep) continue
+            while (idleBytes > MAX_IDLE_BYTES && pool.isNotEmpty()) {
+                idleBytes -= pool.pollLast().size
+                FrameMetrics.increment(METRIC_EVICT)
+            }
+            if (pool.isEmpty()) iterator.remove()
+        }
+    }
+
+    @JvmStatic
+    fun bufferSize(width: Int, height: Int, format: Int): Int {
+        return when (format) {
+            ImageFormat.NV21, ImageFormat.YUV_420_888, FORMAT_GRAY_NV21 -> width * height + 2 * (width * height / 4)
+            else -> width * height * ImageFormat.getBitsPerPixel(format) / 8
+        }
+    }
+
+    val hitCount: Long get() = FrameMetrics.count(METRIC_HIT)
+
+    val missCount: Long get() = FrameMetrics.count(METRIC_MISS)
+
+    val idleSize: Long get() = synchronized(pools) { idleBytes }
+
+    fun clear() {
+        synchronized(pools) {
+            pools.clear()
+            idleBytes = 0L
+        }
+    }
+
+    override fun toString(): String = "FrameBufferPool(hits=$hitCount, misses=$missCount, idle=$idleSize bytes)"
+}
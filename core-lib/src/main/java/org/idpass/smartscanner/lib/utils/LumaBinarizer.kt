@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.utils
+
+/**
+ * Black on white copy of a packed luma image for OCR engines that threshold poorly on their own, rotated
+ * upright on the way. Each pixel is compared to the mean of the window around it, read from an integral
+ * image, so that uneven lighting over a document does not wash out part of a line. Buffers are reused
+ * between frames. Not thread safe.
+ *
+ * A pixel is black when it is [sensitivity] percent darker than its window, which is 1 / [windowRatio]
+ * of the upright width wide.
+ */
+class LumaBinarizer(
+    private val windowRatio: Int = 8,
+    private val sensitivity: Int = 15
+) {
+
+    companion object {
+        private const val MIN_WINDOW = 16
+    }
+
+    /**
+     * Upright binarized image of the last [binarize], one byte per pixel, 0 or 255.
+     */
+    var pixels = ByteArray(0)
+        private set
+    var width = 0
+        private set
+    var height = 0
+        private set
+
+    private var integral = IntArray(0)
+
+    /**
+     * Binarizes the [lumaWidth] x [lumaHeight] [luma] image, which has to be rotated by [rotation] degrees
+     * clockwise to be upright, into [pixels].
+     */
+    fun binarize(luma: ByteArray, lumaWidth: Int, lumaHeight: Int, rotation: Int) {
+        val rotated = rotation == 90 || rotation == 270
+        width = if (rotated) lumaHeight else lumaWidth
+        height = if (rotated) lumaWidth else lumaHeight
+        if (pixels.size < width * height) pixels = ByteArray(width * height)
+        LumaRotation.upright(luma, lumaWidth, lumaHeight, rotation, pixels)
+        integrate()
+        val half = maxOf(MIN_WINDOW, width / windowRatio) / 2
+        val stride = width + 1
+        for (y in 0 until height) {
+            val y0 = maxOf(0, y - half)
+            val y1 = minOf(height, y + half + 1)
+            for (x in 0 until width) {
+                val x0 = maxOf(0, x - half)
+                val x1 = minOf(width, x + half + 1)
+                val sum = integral[y1 * stride + x1] - integral[y0 * stride + x1] -
+                    integral[y1 * stride + x0] + integral[y0 * stride + x0]
+                val area = (x1 - x0) * (y1 - y0)
+                val value = pixels[y * width + x].toInt() and 0xFF
+                // value < mean * (100 - sensitivity) / 100, without the division
+                val dark = value.toLong() * area * 100 < sum.toLong() * (100 - sensitivity)
+                pixels[y * width + x] = if (dark) 0 else 255.toByte()
+            }
+        }
+    }
+
+    private fun integrate() {
+        val stride = width + 1
+        val size = stride * (height + 1)
+        if (integral.size < size) integral = IntArray(size)
+        for (x in 0 until stride) integral[x] = 0
+        for (y in 0 until height) {
+            var row = 0
+            integral[(y + 1) * stride] = 0
+            for (x in 0 until width) {
+                row += pixels[y * width + x].toInt() and 0xFF
+                integral[(y + 1) * stride + x + 1] = integral[y * stride + x + 1] + row
+            }
+        }
+    }
+}
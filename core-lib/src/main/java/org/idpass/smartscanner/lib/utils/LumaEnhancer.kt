@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.utils
+
+import org.idpass.smartscanner.lib.scanner.config.EnhanceOptions
+import java.nio.ByteBuffer
+import kotlin.math.pow
+import kotlin.math.roundToInt
+
+/**
+ * Contrast, brightness and gamma adjustment of a luma (Y) plane through a single 256-entry lookup table.
+ *
+ * Values follow the former ColorMatrix based Bitmap extensions: contrast scales the value (1 is neutral),
+ * brightness is added afterwards on the 0..255 scale (0 is neutral) and gamma is applied first as
+ * `255 * (y / 255) ^ (1 / gamma)` (1 is neutral, above 1 lifts the mid tones).
+ */
+class LumaEnhancer(
+    val contrast: Float = 1.0F,
+    val brightness: Float = 0.0F,
+    val gamma: Float = 1.0F
+) {
+    companion object {
+        /**
+         * Enhancer for the given options, falling back to the neutral [EnhanceOptions.default] when none
+         * are set and to the neutral value for every field left empty.
+         */
+        fun from(options: EnhanceOptions?): LumaEnhancer {
+            val enhance = options ?: EnhanceOptions.default
+            return LumaEnhancer(
+                contrast = enhance.contrast ?: 1.0F,
+                brightness = enhance.brightness ?: 0.0F,
+                gamma = enhance.gamma ?: 1.0F
+            )
+        }
+    }
+
+    private val lut = ByteArray(256)
+
+    val isIdentity: Boolean = contrast == 1.0F && brightness == 0.0F && gamma == 1.0F
+
+    init {
+        val exponent = if (gamma > 0F) 1.0 / gamma else 1.0
+        for (y in 0 until 256) {
+            val corrected = 255.0 * (y / 255.0).pow(exponent)
+            val value = (corrected * contrast + brightness).roundToInt().coerceIn(0, 255)
+            lut[y] = value.toByte()
+        }
+    }
+
+    fun map(y: Int): Int = lut[y and 0xFF].toInt() and 0xFF
+
+    /**
+     * Copies the [width] x [height] region at ([left], [top]) of a Y plane with the given [rowStride] into
+     * [out] as a packed luma image starting at [outOffset], enhancing every value on the way.
+     */
+    fun apply(
+        plane: ByteBuffer,
+        rowStride: Int,
+        left: Int,
+        top: Int,
+        width: Int,
+        height: Int,
+        out: ByteArray,
+        outOffset: Int = 0
+    ) {
+        val buffer = plane.duplicate()
+        var outputPos = outOffset
+        for (row in 0 until height) {
+            buffer.position((top + row) * rowStride + left)
+            buffer.get(out, outputPos, width)
+            if (!isIdentity) {
+                val end = outputPos + width
+                for (i in outputPos until end) {
+                    out[i] = lut[out[i].toInt() and 0xFF]
+                }
+            }
+            outputPos += width
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.utils
+
+import java.nio.ByteBuffer
+
+/**
+ * 256-bin histogram of a luma (Y) plane, sampled every [step] pixels in both directions.
+ * Buffers are reused between frames. Not thread safe, use one histogram per analyzer.
+ */
+class LumaHistogram(private val step: Int = 2) {
+
+    private val bins = IntArray(256)
+    private var row = ByteArray(0)
+
+    var total = 0
+        private set
+
+    /**
+     * Fills the histogram from the [width] x [height] region at ([left], [top]) of a Y plane.
+     */
+    fun compute(plane: ByteBuffer, rowStride: Int, left: Int, top: Int, width: Int, height: Int) {
+        bins.fill(0)
+        total = 0
+        if (row.size < width) row = ByteArray(width)
+        val buffer = plane.duplicate()
+        var y = top
+        while (y < top + height) {
+            buffer.position(y * rowStride + left)
+            buffer.get(row, 0, width)
+            var x = 0
+            while (x < width) {
+                bins[row[x].toInt() and 0xFF]++
+                x += step
+            }
+            total += (width + step - 1) / step
+            y += step
+        }
+    }
+
+    fun mean(): Int {
+        if (total == 0) return 0
+        var sum = 0L
+        for (i in bins.indices) sum += i.toLong() * bins[i]
+        return (sum / total).toInt()
+    }
+
+    /**
+     * Smallest luma value with at least [percent] percent of the samples at or below it.
+     */
+    fun percentile(percent: Int): Int {
+        val target = total.toLong() * percent / 100
+        var seen = 0L
+        for (i in bins.indices) {
+            seen += bins[i]
+            if (seen >= target && seen > 0) return i
+        }
+        return 255
+    }
+
+    /**
+     * Share of the samples at or above [level].
+     */
+    fun ratioAtOrAbove(level: Int): Float {
+        if (total == 0) return 0F
+        var count = 0
+        for (i in level until 256) count += bins[i]
+        return count.toFloat() / total
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.utils
+
+/**
+ * Upright copies of packed luma images, for engines that do not take a rotation.
+ */
+object LumaRotation {
+
+    /**
+     * Copies the [width] x [height] [luma] image, which has to be rotated by [rotation] degrees clockwise
+     * to be upright, into [out] as an upright image; its size is swapped for 90 and 270 degrees. Same
+     * mapping as `SensorRoi.toSensor`, the other way round.
+     */
+    fun upright(luma: ByteArray, width: Int, height: Int, rotation: Int, out: ByteArray) {
+        if (rotation != 90 && rotation != 180 && rotation != 270) {
+            System.arraycopy(luma, 0, out, 0, width * height)
+            return
+        }
+        for (sy in 0 until height) {
+            for (sx in 0 until width) {
+                val index = when (rotation) {
+                    90 -> sx * height + (height - 1 - sy)
+                    180 -> (height - 1 - sy) * width + (width - 1 - sx)
+                    else -> (width - 1 - sx) * height + sy
+                }
+                out[index] = luma[sy * width + sx]
+            }
+        }
+    }
+}
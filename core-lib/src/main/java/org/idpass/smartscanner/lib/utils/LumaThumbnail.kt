@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.utils
+
+import java.nio.ByteBuffer
+import kotlin.math.abs
+
+/**
+ * [columns] x [rows] thumbnail of a luma (Y) plane, each cell the mean of its pixels sampled every
+ * [step] pixels in both directions. Buffers are reused between frames. Not thread safe.
+ */
+class LumaThumbnail(
+    private val columns: Int = 32,
+    private val rows: Int = 24,
+    private val step: Int = 4
+) {
+
+    private val cells = IntArray(columns * rows)
+    private val counts = IntArray(columns * rows)
+    private var row = ByteArray(0)
+
+    /**
+     * Fills the thumbnail from the [width] x [height] region at ([left], [top]) of a Y plane.
+     */
+    fun compute(plane: ByteBuffer, rowStride: Int, left: Int, top: Int, width: Int, height: Int) {
+        cells.fill(0)
+        counts.fill(0)
+        if (row.size < width) row = ByteArray(width)
+        val buffer = plane.duplicate()
+        var y = 0
+        while (y < height) {
+            buffer.position((top + y) * rowStride + left)
+            buffer.get(row, 0, width)
+            val offset = y * rows / height * columns
+            var x = 0
+            while (x < width) {
+                val cell = offset + x * columns / width
+                cells[cell] += row[x].toInt() and 0xFF
+                counts[cell]++
+                x += step
+            }
+            y += step
+        }
+        for (i in cells.indices) if (counts[i] > 0) cells[i] /= counts[i]
+    }
+
+    /**
+     * Mean absolute difference of the cells of two thumbnails of the same size, on the 0..255 scale.
+     */
+    fun difference(other: LumaThumbnail): Float {
+        var sum = 0
+        for (i in cells.indices) sum += abs(cells[i] - other.cells[i])
+        return sum.toFloat() / cells.size
+    }
+}
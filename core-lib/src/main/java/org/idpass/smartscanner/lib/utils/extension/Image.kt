@@ -147,11 +147,11 @@ fun Bitmap.rotate(rotation: Int = 0): Bitmap {
 
 fun String.toBitmap(): Bitmap = BitmapFactory.decodeFile(this)
 
-fun Context.cacheImagePath(identifier: String = "Scanner"): String {
+fun Context.cacheImagePath(identifier: String = "Scanner", extension: String = "jpg"): String {
     val date = Calendar.getInstance().time
     val formatter = SimpleDateFormat("yyyyMMddHHmmss", Locale.ROOT)
     val currentDateTime = formatter.format(date)
-    return "${this.cacheDir}/$identifier-$currentDateTime.jpg"
+    return "${this.cacheDir}/$identifier-$currentDateTime.$extension"
 }
 
 fun Bitmap.cropCenter() : Bitmap {
@@ -180,6 +180,7 @@ fun Bitmap.cropCenter() : Bitmap {
 *Checks if the image quality is within the blur threshold.
 *This will help with blurry images that will yield inaccurate results.
 */
+@Deprecated("Measures mean brightness rather than sharpness, use FocusMeter on the luma plane instead")
 fun Bitmap.isImageBlur(threshold: Double) : Boolean {
     val width = this.width
     val height = this.height
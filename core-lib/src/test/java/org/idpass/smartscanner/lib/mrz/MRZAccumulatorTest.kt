@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.mrz
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+
+class MRZAccumulatorTest {
+
+    // ICAO 9303 part 5 specimen
+    private val td1 = "I<UTOD231458907<<<<<<<<<<<<<<<\n7408122F1204159UTO<<<<<<<<<<<6\nERIKSSON<<ANNA<MARIA<<<<<<<<<<"
+    // ICAO 9303 part 4 specimen
+    private val td3 = "P<UTOERIKSSON<<ANNA<MARIA<<<<<<<<<<<<<<<<<<<\nL898902C36UTO7408122F1204159ZE184226B<<<<<10"
+
+    private fun newAccumulator() = MRZAccumulator { MRZCorrector.correct(it) == it }
+
+    private fun misread(mrz: String, row: Int, column: Int, c: Char): String {
+        val lines = mrz.split('\n').toMutableList()
+        lines[row] = lines[row].replaceRange(column, column + 1, c.toString())
+        return lines.joinToString("\n")
+    }
+
+    @Test
+    fun validRead_isReturnedRightAway() {
+        assertEquals(td3, newAccumulator().add(td3))
+    }
+
+    @Test
+    fun misreadsInDifferentFrames_convergeToTheDocument() {
+        val accumulator = newAccumulator()
+        assertNull(accumulator.add(misread(td3, 1, 2, '3')))
+        assertNull(accumulator.add(misread(td3, 1, 15, '9')))
+        assertEquals(td3, accumulator.add(misread(td3, 1, 22, '7')))
+        assertEquals(3, accumulator.size)
+    }
+
+    @Test
+    fun linesOfDifferentFrames_areCombinedByConfidence() {
+        val accumulator = newAccumulator()
+        // line 1 is only read right in the first frame, line 2 only in the second
+        assertNull(accumulator.add(misread(td1, 1, 2, '8'), floatArrayOf(0.9F, 0.2F, 0.9F)))
+        assertEquals(td1, accumulator.add(misread(td1, 0, 6, '7'), floatArrayOf(0.2F, 0.9F, 0.9F)))
+    }
+
+    @Test
+    fun withoutConfidences_theNewerFrameWinsTies() {
+        val accumulator = newAccumulator()
+        assertNull(accumulator.add(misread(td1, 1, 2, '8')))
+        assertNull(accumulator.add(misread(td1, 0, 6, '7')))
+    }
+
+    @Test
+    fun reset_forgetsPreviousFrames() {
+        val accumulator = newAccumulator()
+        accumulator.add(misread(td3, 1, 2, '3'))
+        accumulator.add(misread(td3, 1, 15, '9'))
+        accumulator.reset()
+        assertEquals(0, accumulator.size)
+        assertNull(accumulator.add(misread(td3, 1, 22, '7')))
+        assertEquals(1, accumulator.size)
+    }
+
+    @Test
+    fun anotherLayout_startsOver() {
+        val accumulator = newAccumulator()
+        accumulator.add(misread(td3, 1, 2, '3'))
+        accumulator.add(misread(td3, 1, 15, '9'))
+        assertNull(accumulator.add(misread(td1, 1, 2, '8')))
+        assertEquals(1, accumulator.size)
+    }
+
+    @Test
+    fun onlyTheLastFramesVote() {
+        val accumulator = newAccumulator()
+        repeat(MRZAccumulator.MAX_FRAMES + 3) { accumulator.add(misread(td3, 1, 2, '3')) }
+        assertEquals(MRZAccumulator.MAX_FRAMES, accumulator.size)
+    }
+}
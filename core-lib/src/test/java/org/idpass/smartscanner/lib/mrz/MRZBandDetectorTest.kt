@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.mrz
+
+import android.graphics.Rect
+import android.graphics.RectF
+import org.idpass.smartscanner.lib.scanner.SensorRoi
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import java.nio.ByteBuffer
+
+/**
+ * Locates the MRZ on synthetic luma planes of a document: a photo and a few short lines of visual
+ * text, with two or three MRZ lines of OCR-B sized "characters" at the bottom.
+ */
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [28])
+class MRZBandDetectorTest {
+
+    private val width = 640
+    private val height = 480
+    private val charWidth = 11
+    private val charHeight = 14
+    private val lineSpacing = 25
+
+    private class Card(val luma: ByteArray, val mrz: Rect, val visualBottom: Int)
+
+    /**
+     * Upright [width] x [height] card with [rows] MRZ lines of [columns] characters starting at ([left], [top]).
+     */
+    private fun card(rows: Int, columns: Int, left: Int = 60, top: Int = 340, withMrz: Boolean = true): Card {
+        val luma = ByteArray(width * height) { 200.toByte() }
+        // photo and visual text lines
+        fill(luma, 40, 60, 150, 200, 70)
+        for ((row, length) in listOf(12, 18, 9).withIndex()) text(luma, 200, 80 + row * 40, length, 18)
+        val mrz = Rect(left, top, left + columns * charWidth, top + (rows - 1) * lineSpacing + charHeight)
+        if (withMrz) {
+            for (row in 0 until rows) text(luma, left, top + row * lineSpacing, columns, charHeight)
+        }
+        return Card(luma, mrz, 80 + 2 * 40 + 18)
+    }
+
+    // Characters as two dark vertical strokes, enough for the horizontal gradients the detector looks for
+    private fun text(luma: ByteArray, left: Int, top: Int, length: Int, height: Int) {
+        for (c in 0 until length) {
+            val x = left + c * charWidth
+            fill(luma, x + 2, top, 2, height, 30)
+            fill(luma, x + 6 + c % 3, top, 2, height, 30)
+        }
+    }
+
+    private fun fill(luma: ByteArray, left: Int, top: Int, w: Int, h: Int, value: Int) {
+        for (y in top until top + h) for (x in left until left + w) luma[y * width + x] = value.toByte()
+    }
+
+    /**
+     * Sensor plane of an upright image, laid out so that turning it by [rotation] degrees clockwise gives
+     * [upright] back, rows padded to [rowStride].
+     */
+    private fun sensor(upright: ByteArray, rotation: Int, rowStride: Int): ByteBuffer {
+        val rotated = rotation == 90 || rotation == 270
+        val sw = if (rotated) height else width
+        val sh = if (rotated) width else height
+        val plane = ByteArray(rowStride * sh)
+        for (sy in 0 until sh) {
+            for (sx in 0 until sw) {
+                val (ux, uy) = when (rotation) {
+                    90 -> (sh - 1 - sy) to sx
+                    180 -> (sw - 1 - sx) to (sh - 1 - sy)
+                    270 -> sy to (sw - 1 - sx)
+                    else -> sx to sy
+                }
+                plane[sy * rowStride + sx] = upright[uy * width + ux]
+            }
+        }
+        return ByteBuffer.wrap(plane)
+    }
+
+    private fun sensorBox(upright: Rect, rotation: Int): Rect {
+        val rotated = rotation == 90 || rotation == 270
+        return SensorRoi.toSensor(
+            RectF(upright), if (rotated) height else width, if (rotated) width else height, rotation
+        )!!
+    }
+
+    private fun assertBand(band: Rect?, expected: Rect) {
+        assertNotNull("no band found around $expected", band)
+        assertTrue("$band does not contain $expected", band!!.contains(expected))
+        // padded by about a line, not the whole frame
+        assertTrue("$band is too tall for $expected", band.height() < expected.height() + 4 * charHeight)
+    }
+
+    @Test
+    fun td3Band_isFoundBelowTheVisualZone() {
+        val card = card(rows = 2, columns = 44)
+        val band = MRZBandDetector().locate(ByteBuffer.wrap(card.luma), width, 0, 0, width, height, 0)
+        assertBand(band, card.mrz)
+        assertTrue("$band reaches the visual zone", band!!.top > card.visualBottom)
+    }
+
+    @Test
+    fun td1Band_keepsItsThreeLines() {
+        val card = card(rows = 3, columns = 30, top = 320)
+        assertBand(MRZBandDetector().locate(ByteBuffer.wrap(card.luma), width, 0, 0, width, height, 0), card.mrz)
+    }
+
+    @Test
+    fun rotatedFrames_giveTheBandInSensorCoordinates() {
+        val card = card(rows = 2, columns = 44)
+        for (rotation in listOf(90, 180, 270)) {
+            val rotated = rotation == 90 || rotation == 270
+            val sw = if (rotated) height else width
+            val sh = if (rotated) width else height
+            val plane = sensor(card.luma, rotation, sw + 32)
+            val band = MRZBandDetector().locate(plane, sw + 32, 0, 0, sw, sh, rotation)
+            assertBand(band, sensorBox(card.mrz, rotation))
+        }
+    }
+
+    @Test
+    fun region_isOffsetIntoTheFrame() {
+        // only the lower half of the frame, a guide area, is searched
+        val card = card(rows = 2, columns = 44)
+        val top = 240
+        val band = MRZBandDetector().locate(ByteBuffer.wrap(card.luma), width, 0, top, width, height - top, 0)
+        assertBand(band, card.mrz)
+    }
+
+    @Test
+    fun documentWithoutMrz_hasNoBand() {
+        val card = card(rows = 2, columns = 44, withMrz = false)
+        assertNull(MRZBandDetector().locate(ByteBuffer.wrap(card.luma), width, 0, 0, width, height, 0))
+        val blank = ByteBuffer.wrap(ByteArray(width * height) { 128.toByte() })
+        assertNull(MRZBandDetector().locate(blank, width, 0, 0, width, height, 0))
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.mrz
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.fail
+import org.junit.Test
+import kotlin.random.Random
+
+/**
+ * Checks the single pass [MRZCleaner] against the regular expression chain it replaced.
+ */
+class MRZCleanerTest {
+
+    private val td3 = "P<UTOERIKSSON<<ANNA<MARIA<<<<<<<<<<<<<<<<<<<\nL898902C36UTO7408122F1204159ZE184226B<<<<<10"
+    private val td1 = "I<UTOD231458907<<<<<<<<<<<<<<<\n7408122F1204159UTO<<<<<<<<<<<6\nERIKSSON<<ANNA<MARIA<<<<<<<<<<"
+
+    private val samples = listOf(
+        td3,
+        td1,
+        "",
+        "\n\n",
+        "no document code here <<<",
+        "PASSPORT REPUBLIC OF UTOPIA\n$td3\n",
+        "Passport\r\n\r\n${td3.replace("\n", "\r\n")}\r\n",
+        " P < UTO ERIKSSON << ANNA\t<MARIA<<<<<<<<<<<<<<<<<<<\n\n\nL898902C36UTO7408122F1204159ZE184226B<<<<<10 ",
+        "P«UTOERIKSSON««ANNA«MARIA«««««««««««««««««««\nL898902C36UTO7408122F1204159ZE184226B«««««10",
+        "PKUTOERIKSSON<<ANNA<MARIA<<<<<<<<<<<<<<<<<<<\nL898902C36UTO7408122F1204159ZE184226B<<<<<10",
+        "PCUTOERIKSSON<<ANNA<MARIA<<<<<<<<<<<<<<<<<<<",
+        "xPKUTO\nP<K<",
+        "P<UTOERIKSSON<c<ANNA<e<MARIA<E<<K<<S<<C<<¢<<(<<{<<[<<<<<<<<<<",
+        "P<c<c<c<<e<E<e<<S<C<S<<<",
+        "I<UTOD231458907<<<<<<<<<<<<<<<\n7408122F1204159UTO<<<<<<<<<<<6\nERIKSSON<<ANNA<MARIA<<<<<<<<<<\n",
+        "I<utoD23145890é<<<<<<<<<<<<<<<\n7408122F1204159UTO<<<<<<<<<<<6\n ERIKSSON<<ANNA<MARIA<<<<<<<<<<",
+        "V<UTOERIKSSON<<ANNA<MARIA<<<<<<<<<<<<<<<<<<<\nL8988901C4XXX4009078F96121096ZE184226B<<<<<<",
+        "A <—UTO\n\n<",
+        "C<<\n\n\n<<\n"
+    )
+
+    @Test
+    fun filter_matchesLegacyChain_onSamples() {
+        for (sample in samples) {
+            assertEquals(sample, legacyFilter(sample), MRZCleaner.filter(sample))
+        }
+    }
+
+    @Test
+    fun filter_matchesLegacyChain_onRandomText() {
+        val alphabet = "PIACVKEScCe<<<<<<«¢({[ \t\r\n\nABZ0189opé "
+        val random = Random(13)
+        repeat(5000) {
+            val text = String(CharArray(random.nextInt(0, 120)) { alphabet[random.nextInt(alphabet.length)] })
+            assertEquals(text, legacyFilter(text), MRZCleaner.filter(text))
+        }
+    }
+
+    @Test
+    fun clean_matchesLegacyClean_onWellFormedReads() {
+        for (sample in listOf(td3, td1, samples[7], samples[8], samples[14])) {
+            assertEquals(sample, legacyClean(sample), MRZCleaner.clean(sample))
+        }
+    }
+
+    @Test
+    fun clean_fitsEveryLineToItsLayout() {
+        // a trailing character read after the last line of a TD3 and a line missing two fillers
+        val read = "P<UTOERIKSSON<<ANNA<MARIA<<<<<<<<<<<<<<<<<\nL898902C36UTO7408122F1204159ZE184226B<<<<<10K"
+        assertEquals(td3, MRZCleaner.clean(read))
+    }
+
+    @Test
+    fun clean_rejectsTextWithoutMrz() {
+        for (text in listOf("", "PASSPORT", "P<UTO", "$td3\n$td3")) {
+            try {
+                MRZCleaner.clean(text)
+                fail("cleaned \"$text\"")
+            } catch (e: IllegalArgumentException) {
+            }
+        }
+    }
+
+    /**
+     * Filtering of the former MRZCleaner.clean, before the result was cut.
+     */
+    private fun legacyFilter(mrz: String): String {
+        return mrz
+            .replace(Regex("^[^PIACV]*"), "")
+            .replace(Regex("[ \\t\\r]+"), "")
+            .replace(Regex("\\n+"), "\n")
+            .replace("«", "<")
+            .replace("<c<", "<<<")
+            .replace("<e<", "<<<")
+            .replace("<E<", "<<<")
+            .replace("<K<", "<<<")
+            .replace("<S<", "<<<")
+            .replace("<C<", "<<<")
+            .replace("<¢<", "<<<")
+            .replace("<(<", "<<<")
+            .replace("<{<", "<<<")
+            .replace("<[<", "<<<")
+            .replace(Regex("^P[KC]"), "P<")
+            .replace(Regex("[^A-Z0-9<\\n]"), "")
+            .trim()
+    }
+
+    /**
+     * The former MRZCleaner.clean, which cut two line reads at 89 and three line reads at 92 characters.
+     */
+    private fun legacyClean(mrz: String): String {
+        val result = legacyFilter(mrz)
+        if (!result.contains("<") || result.isEmpty() || result[0] !in "PIACV") throw IllegalArgumentException()
+        return when (result.count { it == '\n' }) {
+            1 -> result.take(89)
+            2 -> result.take(92)
+            else -> throw IllegalArgumentException()
+        }
+    }
+}
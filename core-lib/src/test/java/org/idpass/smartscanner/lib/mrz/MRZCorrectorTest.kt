@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.mrz
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+
+class MRZCorrectorTest {
+
+    // ICAO 9303 part 4 specimen
+    private val td3 = "P<UTOERIKSSON<<ANNA<MARIA<<<<<<<<<<<<<<<<<<<\nL898902C36UTO7408122F1204159ZE184226B<<<<<10"
+    // ICAO 9303 part 5 specimen
+    private val td1 = "I<UTOD231458907<<<<<<<<<<<<<<<\n7408122F1204159UTO<<<<<<<<<<<6\nERIKSSON<<ANNA<MARIA<<<<<<<<<<"
+
+    private fun misread(mrz: String, vararg edits: Triple<Int, Int, Char>): String {
+        val lines = mrz.split('\n').map { StringBuilder(it) }
+        for ((row, column, c) in edits) lines[row].setCharAt(column, c)
+        return lines.joinToString("\n")
+    }
+
+    private fun passesChecks(mrz: String) = MRZCorrector.correct(mrz) == mrz
+
+    @Test
+    fun validReads_areLeftAsIs() {
+        assertEquals(td3, MRZCorrector.correct(td3))
+        assertEquals(td1, MRZCorrector.correct(td1))
+    }
+
+    @Test
+    fun normalize_mapsLookAlikesToTheFieldAlphabet() {
+        // letters in the birth date, a digit in the nationality
+        val read = misread(td3, Triple(1, 15, 'O'), Triple(1, 16, 'B'), Triple(1, 12, '0'))
+        assertEquals(td3, MRZCorrector.normalize(read))
+    }
+
+    @Test
+    fun oneEdit_digitReadForAnotherDigit() {
+        // birth date 740812 read as 740312
+        assertEquals(td3, MRZCorrector.correct(misread(td3, Triple(1, 16, '3'))))
+        // expiry date 120415 read as 720415
+        assertEquals(td3, MRZCorrector.correct(misread(td3, Triple(1, 21, '7'))))
+        // TD1 expiry date 120415 read as 128415
+        assertEquals(td1, MRZCorrector.correct(misread(td1, Triple(1, 10, '8'))))
+    }
+
+    @Test
+    fun letterReadInADate_isMappedToItsDigit() {
+        // birth date 740812 read as 740B12
+        assertEquals(td3, MRZCorrector.correct(misread(td3, Triple(1, 16, 'B'))))
+    }
+
+    @Test
+    fun twoEdits_inDifferentFields() {
+        // birth date 740812 read as 740312 and expiry date 120415 as 128415
+        assertEquals(td3, MRZCorrector.correct(misread(td3, Triple(1, 16, '3'), Triple(1, 23, '8'))))
+        // document number L898902C3 read as L898982C3 and the expiry date as 128415
+        assertEquals(td3, MRZCorrector.correct(misread(td3, Triple(1, 5, '8'), Triple(1, 23, '8'))))
+        // TD1 birth date 740812 read as 740312 and expiry date 120415 as 128415
+        assertEquals(td1, MRZCorrector.correct(misread(td1, Triple(1, 3, '3'), Triple(1, 10, '8'))))
+    }
+
+    @Test
+    fun ambiguousCorrection_isRejected() {
+        // document number L898902C3 read as L868902C3: both L968902C3 and L8689D2C3 pass every check,
+        // the composite digit weighs the document number like its own check digit and cannot tell
+        val read = misread(td3, Triple(1, 2, '6'))
+        assertEquals(true, passesChecks(misread(read, Triple(1, 1, '9'))))
+        assertEquals(true, passesChecks(misread(read, Triple(1, 5, 'D'))))
+        assertNull(MRZCorrector.correct(read))
+    }
+
+    @Test
+    fun unknownLayout_isNotCorrected() {
+        assertNull(MRZCorrector.correct("P<UTOERIKSSON<<ANNA\nL898902C36UTO"))
+    }
+}
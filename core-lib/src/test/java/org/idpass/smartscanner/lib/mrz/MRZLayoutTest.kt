@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.mrz
+
+import org.idpass.smartscanner.lib.scanner.config.MrzFormat
+import org.idpass.smartscanner.mrz.parser.innovatrics.records.MrtdTd1
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * ICAO 9303 specimens of every layout, detected, cleaned and passing their check digits.
+ */
+class MRZLayoutTest {
+
+    private val specimens = linkedMapOf(
+        MRZLayout.TD1 to "I<UTOD231458907<<<<<<<<<<<<<<<\n7408122F1204159UTO<<<<<<<<<<<6\nERIKSSON<<ANNA<MARIA<<<<<<<<<<",
+        MRZLayout.TD2 to "I<UTOERIKSSON<<ANNA<MARIA<<<<<<<<<<<\nD231458907UTO7408122F1204159<<<<<<<6",
+        MRZLayout.TD3 to "P<UTOERIKSSON<<ANNA<MARIA<<<<<<<<<<<<<<<<<<<\nL898902C36UTO7408122F1204159ZE184226B<<<<<10",
+        MRZLayout.MRV_A to "V<UTOERIKSSON<<ANNA<MARIA<<<<<<<<<<<<<<<<<<<\nL8988901C4XXX4009078F96121096ZE184226B<<<<<<",
+        MRZLayout.MRV_B to "V<UTOERIKSSON<<ANNA<MARIA<<<<<<<<<<<\nL8988901C4XXX4009078F9612109<<<<<<<<"
+    )
+
+    @Test
+    fun detect_findsTheLayoutOfEverySpecimen() {
+        for ((layout, mrz) in specimens) {
+            assertEquals(mrz, layout, MRZLayout.detect(mrz))
+        }
+    }
+
+    @Test
+    fun detect_mapsLayoutsToTheirFormat() {
+        assertEquals(MrzFormat.MRTD_TD1, MRZLayout.TD1.format)
+        assertEquals(MrzFormat.MRTD_TD2, MRZLayout.TD2.format)
+        assertEquals(MrzFormat.MRP, MRZLayout.TD3.format)
+        assertEquals(MrzFormat.MRV_A, MRZLayout.MRV_A.format)
+        assertEquals(MrzFormat.MRV_B, MRZLayout.MRV_B.format)
+    }
+
+    @Test
+    fun detect_rejectsReadsWithoutLayout() {
+        assertNull(MRZLayout.detect("P<UTOERIKSSON"))
+        assertNull(MRZLayout.detect("P<UTO<<<<<<<<<<<<<<<<<<<<<<<<<<<\nL898902C36UTO7408122F1204159ZE184226B<<<<<10\nERIKSSON<<ANNA<MARIA<<<<<<<<<<"))
+        assertNull(MRZLayout.detect("I<UTOD231458907<<<<<<<<<<<<<<<\n7408122F1204159UTO<<<<<<<<<<<6\nERIKSSON\nANNA"))
+    }
+
+    @Test
+    fun specimens_passEveryCheckDigit() {
+        for (mrz in specimens.values) {
+            assertEquals(mrz, mrz, MRZCorrector.correct(mrz))
+        }
+    }
+
+    @Test
+    fun clean_keepsEverySpecimen() {
+        for (mrz in specimens.values) {
+            assertEquals(mrz, MRZCleaner.clean(mrz))
+        }
+    }
+
+    @Test
+    fun clean_padsLinesMissingTrailingFillers() {
+        for ((layout, mrz) in specimens) {
+            val read = mrz.split('\n').joinToString("\n") { it.dropLast(MRZLayout.MAX_MISSING_FILLERS) }
+            // the check digit closing a TD2 or TD3 second line is lost with the fillers, only fillers come back
+            val expected = mrz.split('\n').joinToString("\n") {
+                it.dropLast(MRZLayout.MAX_MISSING_FILLERS).padEnd(layout.columns, '<')
+            }
+            assertEquals(layout.name, expected, MRZCleaner.clean(read))
+        }
+    }
+
+    @Test
+    fun clean_cutsLinesToTheLayoutWidth() {
+        for (mrz in specimens.values) {
+            assertEquals(mrz, MRZCleaner.clean(mrz.replace("\n", "<<K\n") + "0<"))
+        }
+    }
+
+    @Test
+    fun parse_readsEverySpecimen() {
+        for (mrz in specimens.values) {
+            assertEquals("ERIKSSON", MRZCleaner.parse(mrz).surname)
+        }
+        assertTrue(MRZCleaner.parse(specimens.getValue(MRZLayout.TD1), preferMrtdTd1 = true) is MrtdTd1)
+    }
+}
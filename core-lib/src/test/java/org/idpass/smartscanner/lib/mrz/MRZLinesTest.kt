@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.mrz
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+import kotlin.math.cos
+import kotlin.math.sin
+
+/**
+ * Rebuilds MRZ lines from synthetic element boxes, laid out like ML Kit reports them on a tilted document.
+ */
+class MRZLinesTest {
+
+    // ICAO 9303 part 4 specimen
+    private val td3 = listOf("P<UTOERIKSSON<<ANNA<MARIA<<<<<<<<<<<<<<<<<<<", "L898902C36UTO7408122F1204159ZE184226B<<<<<10")
+    // ICAO 9303 part 5 specimen
+    private val td1 = listOf("I<UTOD231458907<<<<<<<<<<<<<<<", "7408122F1204159UTO<<<<<<<<<<<6", "ERIKSSON<<ANNA<MARIA<<<<<<<<<<")
+
+    private val charWidth = 10F
+    private val charHeight = 20F
+    private val lineSpacing = 1.6F * charHeight
+
+    /**
+     * Element of [text] whose bottom left corner is at ([x], [y]) on the upright document, turned by
+     * [degrees] clockwise around the origin.
+     */
+    private fun word(text: String, x: Float, y: Float, degrees: Double, confidence: Float? = null): MRZLines.Word {
+        val angle = Math.toRadians(degrees)
+        val right = x + text.length * charWidth
+        val top = y - charHeight
+        val points = floatArrayOf(x, top, right, top, right, y, x, y)
+        val corners = FloatArray(8)
+        for (i in 0 until 8 step 2) {
+            corners[i] = (points[i] * cos(angle) - points[i + 1] * sin(angle)).toFloat()
+            corners[i + 1] = (points[i] * sin(angle) + points[i + 1] * cos(angle)).toFloat()
+        }
+        return MRZLines.Word(text, corners, confidence)
+    }
+
+    /**
+     * Splits every line into elements of about [chunk] characters at their place on the document.
+     */
+    private fun words(lines: List<String>, degrees: Double, top: Float = 200F, chunk: Int = 11): List<MRZLines.Word> {
+        val words = ArrayList<MRZLines.Word>()
+        for ((row, line) in lines.withIndex()) {
+            for (start in line.indices step chunk) {
+                val text = line.substring(start, minOf(line.length, start + chunk))
+                words.add(word(text, 50F + start * charWidth, top + row * lineSpacing, degrees))
+            }
+        }
+        return words
+    }
+
+    @Test
+    fun levelLines_areRebuiltInOrder() {
+        assertEquals(td3, MRZLines.rebuild(words(td3, 0.0)).texts)
+        assertEquals(td1, MRZLines.rebuild(words(td1, 0.0)).texts)
+    }
+
+    @Test
+    fun skewedLines_areRebuiltFromTheirGeometry() {
+        for (degrees in listOf(-12.0, -5.0, 3.0, 8.0, 15.0)) {
+            assertEquals("$degrees°", td3, MRZLines.rebuild(words(td3, degrees)).texts)
+            assertEquals("$degrees°", td1, MRZLines.rebuild(words(td1, degrees)).texts)
+        }
+    }
+
+    @Test
+    fun elementOrder_doesNotMatter() {
+        // blocks come interleaved and right to left on tilted documents
+        val shuffled = words(td1, 6.0).shuffled(java.util.Random(3))
+        assertEquals(td1, MRZLines.rebuild(shuffled).texts)
+        assertEquals(td3, MRZLines.rebuild(words(td3, -6.0).reversed()).texts)
+    }
+
+    @Test
+    fun elementsOffTheirBaseline_stayOnTheirLine() {
+        // element boxes of one line are a few pixels apart vertically, well within the skew tolerance
+        val words = words(td3, 4.0).mapIndexed { i, word ->
+            val jitter = if (i % 2 == 0) 0.3F * charHeight else -0.3F * charHeight
+            val corners = word.corners.copyOf()
+            for (c in 1 until 8 step 2) corners[c] += jitter
+            MRZLines.Word(word.text, corners)
+        }
+        assertEquals(td3, MRZLines.rebuild(words).texts)
+    }
+
+    @Test
+    fun textAboveTheMrz_isLeftOut() {
+        val visual = listOf(
+            word("PASSPORT", 50F, 80F, 5.0),
+            word("ERIKSSON", 50F, 120F, 5.0),
+            word("ANNA MARIA", 250F, 120F, 5.0)
+        )
+        assertEquals(td3, MRZLines.rebuild(visual + words(td3, 5.0)).texts)
+    }
+
+    @Test
+    fun confidences_areAveragedPerLine() {
+        val words = listOf(
+            word(td3[0].substring(0, 22), 50F, 200F, 7.0, 0.8F),
+            word(td3[0].substring(22), 270F, 200F, 7.0, 0.6F),
+            word(td3[1], 50F, 200F + lineSpacing, 7.0, 0.9F)
+        )
+        val lines = MRZLines.rebuild(words)
+        assertEquals(td3, lines.texts)
+        assertArrayEquals(floatArrayOf(0.7F, 0.9F), lines.confidences, 1e-4F)
+    }
+
+    @Test
+    fun withoutLayout_linesWithFillerAreKept() {
+        val words = listOf(word("P<UTOERIKSSON<<ANNA", 50F, 200F, 10.0), word("SPECIMEN", 50F, 200F + lineSpacing, 10.0))
+        val lines = MRZLines.rebuild(words)
+        assertEquals(listOf("P<UTOERIKSSON<<ANNA"), lines.texts)
+        assertNull(lines.bounds)
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.scanner
+
+import org.idpass.smartscanner.lib.scanner.config.QualityOptions
+import org.idpass.smartscanner.lib.utils.LumaThumbnail
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.nio.ByteBuffer
+import kotlin.random.Random
+
+/**
+ * Compares synthetic 640x480 luma planes of a document: the same scene with sensor noise, and the
+ * scene once the document has moved.
+ */
+class FrameSimilarityTest {
+
+    private val width = 640
+    private val height = 480
+
+    /**
+     * Light document with dark text at ([left], [top]) on a grey background, with up to [noise] luma of sensor noise.
+     */
+    private fun plane(left: Int = 120, top: Int = 100, noise: Int = 0, seed: Int = 0, rowStride: Int = width): ByteBuffer {
+        val random = Random(seed)
+        val plane = ByteArray(rowStride * height)
+        for (y in 0 until height) {
+            for (x in 0 until width) {
+                val document = x in left until left + 400 && y in top until top + 250
+                val text = document && (x / 6) % 3 == 0 && (y / 12) % 2 == 0
+                val luma = when {
+                    text -> 40
+                    document -> 220
+                    else -> 110
+                }
+                val jitter = if (noise > 0) random.nextInt(-noise, noise + 1) else 0
+                plane[y * rowStride + x] = (luma + jitter).coerceIn(0, 255).toByte()
+            }
+        }
+        return ByteBuffer.wrap(plane)
+    }
+
+    private fun thumbnail(plane: ByteBuffer, rowStride: Int = width) =
+        LumaThumbnail().apply { compute(plane, rowStride, 0, 0, width, height) }
+
+    private fun similarity(maxDifference: Float = 2.5F, maxSkips: Int = 4) =
+        FrameSimilarity(QualityOptions(maxDuplicateDifference = maxDifference, maxDuplicateSkips = maxSkips))
+
+    private fun FrameSimilarity.isDuplicate(plane: ByteBuffer) =
+        isDuplicate { it.compute(plane, width, 0, 0, width, height) }
+
+    @Test
+    fun thumbnail_ofTheSameFrame_doesNotDiffer() {
+        assertEquals(0F, thumbnail(plane()).difference(thumbnail(plane())), 0F)
+    }
+
+    @Test
+    fun thumbnail_ofNoisyFrames_barelyDiffers() {
+        val difference = thumbnail(plane(noise = 8, seed = 1)).difference(thumbnail(plane(noise = 8, seed = 2)))
+        // below the 2.5 suggested for a card held still
+        assertTrue("$difference", difference < 2.5F)
+    }
+
+    @Test
+    fun thumbnail_ofAMovedDocument_differs() {
+        val difference = thumbnail(plane()).difference(thumbnail(plane(left = 160, top = 130)))
+        assertTrue("$difference", difference > 10F)
+    }
+
+    @Test
+    fun thumbnail_readsPaddedRows() {
+        val padded = thumbnail(plane(noise = 0, rowStride = width + 64), rowStride = width + 64)
+        assertEquals(0F, padded.difference(thumbnail(plane())), 0F)
+    }
+
+    @Test
+    fun nearDuplicates_areSkippedUpToMaxSkips() {
+        val similarity = similarity(maxSkips = 4)
+        assertFalse(similarity.isDuplicate(plane(noise = 6, seed = 0)))
+        for (seed in 1..4) assertTrue("frame $seed", similarity.isDuplicate(plane(noise = 6, seed = seed)))
+        // the fifth one in a row is recognized anyway and becomes the reference
+        assertFalse(similarity.isDuplicate(plane(noise = 6, seed = 5)))
+        assertTrue(similarity.isDuplicate(plane(noise = 6, seed = 6)))
+    }
+
+    @Test
+    fun movedDocument_isNotADuplicate() {
+        val similarity = similarity()
+        assertFalse(similarity.isDuplicate(plane()))
+        assertTrue(similarity.isDuplicate(plane(noise = 4, seed = 1)))
+        assertFalse(similarity.isDuplicate(plane(left = 160, top = 130)))
+        // compared against the moved document from now on
+        assertTrue(similarity.isDuplicate(plane(left = 160, top = 130, noise = 4, seed = 2)))
+    }
+
+    @Test
+    fun invalidate_recognizesTheNextFrame() {
+        val similarity = similarity()
+        assertFalse(similarity.isDuplicate(plane()))
+        similarity.invalidate()
+        assertFalse(similarity.isDuplicate(plane()))
+        assertTrue(similarity.isDuplicate(plane()))
+    }
+
+    @Test
+    fun defaultOptions_skipNothing() {
+        val similarity = FrameSimilarity(QualityOptions())
+        repeat(3) { assertFalse(similarity.isDuplicate(plane())) }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.scanner
+
+import android.graphics.Rect
+import android.os.SystemClock
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+/**
+ * Follows a target moving across a 1280x720 frame through hits and misses of the recognizer.
+ */
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [28])
+class RegionTrackerTest {
+
+    private val width = 1280
+    private val height = 720
+
+    private fun assertEven(roi: Rect) {
+        assertTrue("$roi", roi.left % 2 == 0 && roi.top % 2 == 0 && roi.width() % 2 == 0 && roi.height() % 2 == 0)
+    }
+
+    @Test
+    fun untracked_leavesTheRoiToTheCaller() {
+        assertNull(RegionTracker().roi(width, height))
+    }
+
+    @Test
+    fun hit_givesTheRegionGrownByTheMargin() {
+        val tracker = RegionTracker(margin = 0.5F)
+        tracker.hit(Rect(400, 300, 800, 400))
+        // half of the 100 px shorter side on each side
+        assertEquals(Rect(350, 250, 850, 450), tracker.roi(width, height))
+    }
+
+    @Test
+    fun movingTarget_isFollowed() {
+        val tracker = RegionTracker(margin = 0.5F)
+        var region = Rect(100, 300, 500, 400)
+        repeat(10) {
+            tracker.hit(region)
+            val roi = tracker.roi(width, height)
+            assertNotNull(roi)
+            assertTrue("$roi does not contain $region", roi!!.contains(region))
+            assertEven(roi)
+            // the document drifts right and down between frames
+            region = Rect(region.left + 37, region.top + 11, region.right + 37, region.bottom + 11)
+        }
+    }
+
+    @Test
+    fun regionAtTheEdge_isClampedToTheFrame() {
+        val tracker = RegionTracker(margin = 0.5F)
+        tracker.hit(Rect(1001, 651, 1279, 719))
+        val roi = tracker.roi(width, height)!!
+        assertTrue("$roi", roi.left >= 0 && roi.top >= 0 && roi.right <= width && roi.bottom <= height)
+        assertEven(roi)
+        tracker.hit(Rect(width + 100, 100, width + 300, 200))
+        assertNull(tracker.roi(width, height))
+    }
+
+    @Test
+    fun target_isLostAfterMaxMisses() {
+        val tracker = RegionTracker(maxMisses = 3)
+        tracker.hit(Rect(400, 300, 800, 400))
+        tracker.miss()
+        tracker.miss()
+        assertNotNull(tracker.roi(width, height))
+        // a hit starts the count again
+        tracker.hit(Rect(420, 300, 820, 400))
+        tracker.miss()
+        tracker.miss()
+        assertNotNull(tracker.roi(width, height))
+        tracker.miss()
+        assertNull(tracker.roi(width, height))
+    }
+
+    @Test
+    fun target_isLostWhenNotSeenInTime() {
+        val tracker = RegionTracker(decayMillis = 1000)
+        tracker.hit(Rect(400, 300, 800, 400))
+        SystemClock.sleep(500)
+        assertNotNull(tracker.roi(width, height))
+        SystemClock.sleep(600)
+        assertNull(tracker.roi(width, height))
+        // and stays lost
+        SystemClock.sleep(10)
+        assertNull(tracker.roi(width, height))
+    }
+
+    @Test
+    fun reset_dropsTheRegion() {
+        val tracker = RegionTracker()
+        tracker.hit(Rect(400, 300, 800, 400))
+        tracker.reset()
+        assertNull(tracker.roi(width, height))
+    }
+}
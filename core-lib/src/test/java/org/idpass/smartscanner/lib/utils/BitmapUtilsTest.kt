@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2020 Newlogic Pte. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ */
+package org.idpass.smartscanner.lib.utils
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.nio.ByteBuffer
+import kotlin.random.Random
+
+/**
+ * Checks the bulk row copy of [BitmapUtils.unpackPlane] byte for byte against the former per-pixel copy.
+ */
+class BitmapUtilsTest {
+
+    private val sizes = listOf(640 to 480, 320 to 240, 176 to 144, 162 to 122)
+    private val paddings = listOf(0, 1, 16, 64)
+
+    @Test
+    fun unpackPlane_matchesLegacyCopy_pixelStride1() {
+        for ((width, height) in sizes) for (padding in paddings) for (direct in listOf(false, true)) {
+            assertPlanes(width, height, padding, chromaPixelStride = 1, direct = direct)
+        }
+    }
+
+    @Test
+    fun unpackPlane_matchesLegacyCopy_pixelStride2() {
+        for ((width, height) in sizes) for (padding in paddings) for (direct in listOf(false, true)) {
+            assertPlanes(width, height, padding, chromaPixelStride = 2, direct = direct)
+        }
+    }
+
+    @Test
+    fun unpackPlane_leavesBufferPositionUntouched() {
+        val plane = plane(64, 48, 64 + 16, 1, Random(1), direct = false)
+        plane.position(7)
+        BitmapUtils.unpackPlane(plane, 64 + 16, 1, 64, 48, ByteArray(64 * 48), 0, 1)
+        assertEquals(7, plane.position())
+    }
+
+    /**
+     * Unpacks Y, U and V planes laid out the way a camera does (padded rows, last row unpadded) into
+     * NV21 with both implementations and compares the results.
+     */
+    private fun assertPlanes(width: Int, height: Int, padding: Int, chromaPixelStride: Int, direct: Boolean) {
+        val random = Random(width * 31 + padding * 7 + chromaPixelStride)
+        val chromaWidth = width / 2
+        val chromaRowStride = chromaWidth * chromaPixelStride + padding
+        val y = plane(width, height, width + padding, 1, random, direct)
+        val u = plane(chromaWidth, height / 2, chromaRowStride, chromaPixelStride, random, direct)
+        val v = plane(chromaWidth, height / 2, chromaRowStride, chromaPixelStride, random, direct)
+
+        val imageSize = width * height
+        val expected = ByteArray(imageSize + 2 * (imageSize / 4))
+        val actual = ByteArray(expected.size)
+        legacyUnpackPlane(y, width + padding, 1, width, height, expected, 0, 1)
+        legacyUnpackPlane(u, chromaRowStride, chromaPixelStride, width, height, expected, imageSize + 1, 2)
+        legacyUnpackPlane(v, chromaRowStride, chromaPixelStride, width, height, expected, imageSize, 2)
+        BitmapUtils.unpackPlane(y, width + padding, 1, width, height, actual, 0, 1)
+        BitmapUtils.unpackPlane(u, chromaRowStride, chromaPixelStride, width, height, actual, imageSize + 1, 2)
+        BitmapUtils.unpackPlane(v, chromaRowStride, chromaPixelStride, width, height, actual, imageSize, 2)
+
+        assertArrayEquals("${width}x$height padding=$padding pixelStride=$chromaPixelStride direct=$direct", expected, actual)
+    }
+
+    private fun plane(width: Int, height: Int, rowStride: Int, pixelStride: Int, random: Random, direct: Boolean): ByteBuffer {
+        val size = rowStride * (height - 1) + (width - 1) * pixelStride + 1
+        val buffer = if (direct) ByteBuffer.allocateDirect(size) else ByteBuffer.allocate(size)
+        buffer.put(random.nextBytes(size))
+        buffer.rewind()
+        return buffer
+    }
+
+    /**
+     * The per-pixel copy [BitmapUtils.unpackPlane] used before it read whole rows.
+     */
+    private fun legacyUnpackPlane(
+        buffer: ByteBuffer, rowStride: Int, planePixelStride: Int,
+        width: Int, height: Int, out: ByteArray, offset: Int, pixelStride: Int
+    ) {
+        buffer.rewind()
+        val numRow = (buffer.limit() + rowStride - 1) / rowStride
+        if (numRow == 0) return
+        val scaleFactor = height / numRow
+        val numCol = width / scaleFactor
+        var outputPos = offset
+        var rowStart = 0
+        for (row in 0 until numRow) {
+            var inputPos = rowStart
+            for (col in 0 until numCol) {
+                out[outputPos] = buffer.get(inputPos)
+                outputPos += pixelStride
+                inputPos += planePixelStride
+            }
+            rowStart += rowStride
+        }
+    }
+}